@@ -0,0 +1,59 @@
+package com.community.cordova.magnetometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample heading work before serialization: the azimuth from accelerometer + magnetometer
+ * or from a rotation vector, and the deadband / smoothing filter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeadingBenchmark {
+
+    private final float[] magValues = {18.2f, 9.6f, -41.3f};
+    private final float[] accelValues = {0.35f, 0.21f, 9.79f};
+    // Unit quaternion (x, y, z, w) of a device tilted a little and facing about 40 degrees east
+    private final float[] rotationVector = {0.03f, 0.05f, -0.34f, 0.9386f};
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientation = new float[3];
+
+    // Smoothed, 1 degree deadband: a typical compass watch
+    private final HeadingFilter filter = new HeadingFilter(1, 0, 0.5f);
+    private float heading = 0;
+    private long timestampNanos = 1000000000L;
+
+    @Benchmark
+    public float azimuthAccelMag() {
+        return HeadingMath.calculateAzimuth(magValues, accelValues, rotationMatrix, orientation);
+    }
+
+    @Benchmark
+    public float azimuthRotationVector() {
+        return HeadingMath.calculateAzimuth(rotationVector, rotationMatrix, orientation);
+    }
+
+    /** A heading turning 0.7 degrees per sample, so some samples pass the deadband and some do not */
+    @Benchmark
+    public boolean filterAccept() {
+        heading += 0.7f;
+        if (heading >= 360) {
+            heading -= 360;
+        }
+        timestampNanos += 20000000L;
+        return filter.accept(heading, timestampNanos);
+    }
+}
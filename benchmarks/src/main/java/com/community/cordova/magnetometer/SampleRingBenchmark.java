@@ -0,0 +1,64 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One batched payload: filling a ring of batchSize samples and draining it as a packed JSON
+ * array or as binary records. Divide by batchSize for the cost per sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleRingBenchmark {
+
+    @Param({"10", "100"})
+    public int batchSize;
+
+    private SampleRing ring;
+    private BinarySampleWriter binaryWriter;
+    private final SensorClock clock = new SensorClock();
+    private long timestampNanos;
+
+    @Setup
+    public void setUp() {
+        ring = new SampleRing(batchSize);
+        binaryWriter = new BinarySampleWriter(batchSize);
+        timestampNanos = android.os.SystemClock.elapsedRealtimeNanos();
+    }
+
+    private void fill() {
+        for (int i = 0; i < batchSize; i++) {
+            timestampNanos += 5000000L;
+            ring.add(12.5f + i, -30.25f, 41.75f, timestampNanos);
+        }
+    }
+
+    @Benchmark
+    public JSONArray drainPacked() throws JSONException {
+        fill();
+        return ring.drainPacked(clock);
+    }
+
+    @Benchmark
+    public byte[] drainBinary() {
+        fill();
+        return ring.drainBinary(binaryWriter, clock);
+    }
+}
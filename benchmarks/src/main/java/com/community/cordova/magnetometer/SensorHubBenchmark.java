@@ -0,0 +1,95 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One raw sensor event through the hub: caching, metrics and per-subscriber decimation. Events
+ * arrive every 5 ms; subscribers ask for 20, 40, 60... ms, so most events are decimated for
+ * every subscriber, as with a sensor running faster than the watches need.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorHubBenchmark {
+
+    private static final int MAG = Sensor.TYPE_MAGNETIC_FIELD;
+
+    @Param({"1", "4"})
+    public int subscribers;
+
+    private SensorHub hub;
+    private final float[] values = {12.5f, -30.25f, 41.75f};
+    private long timestampNanos = 1000000000L;
+    private long delivered;
+
+    /** A source that accepts every registration and never produces samples itself */
+    private static final class IdleSource implements SensorSource {
+        @Override
+        public void setListener(Listener listener) {
+        }
+
+        @Override
+        public boolean hasSensor(int sensorType) {
+            return true;
+        }
+
+        @Override
+        public int getMinDelayUs(int sensorType) {
+            return 5000;
+        }
+
+        @Override
+        public int getMaxDelayUs(int sensorType) {
+            return 0;
+        }
+
+        @Override
+        public void register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs) {
+        }
+
+        @Override
+        public void unregister(int sensorType) {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        hub = new SensorHub(new IdleSource(), new PluginMetrics());
+        for (int i = 0; i < subscribers; i++) {
+            hub.subscribe(MAG, new SensorHub.Subscriber() {
+                @Override
+                public void onSample(int sensorType, float[] values, long timestampNanos) {
+                    delivered++;
+                }
+            }, 20000 * (i + 1), 0);
+        }
+    }
+
+    @Benchmark
+    public long onSensorSample() {
+        timestampNanos += 5000000L;
+        hub.onSensorSample(MAG, values, 3, timestampNanos);
+        return delivered;
+    }
+}
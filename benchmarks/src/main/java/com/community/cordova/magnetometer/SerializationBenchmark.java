@@ -0,0 +1,71 @@
+package com.community.cordova.magnetometer;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one watch payload: building the JSON object or binary record, and the PluginResult
+ * that encodes it for the bridge (JSON text, or base64 for an ArrayBuffer).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private final float[] values = {12.5f, -30.25f, 41.75f};
+    private final BinarySampleWriter binaryWriter = new BinarySampleWriter(1);
+    private long timestampNanos = 1000000000L;
+
+    private long nextTimestampNanos() {
+        timestampNanos += 5000000L;
+        return timestampNanos;
+    }
+
+    @Benchmark
+    public JSONObject createReading() throws JSONException {
+        long nanos = nextTimestampNanos();
+        return JsonSampleWriter.createReading(values, nanos / 1000000L, nanos);
+    }
+
+    @Benchmark
+    public JSONObject createHeading() throws JSONException {
+        long nanos = nextTimestampNanos();
+        return JsonSampleWriter.createHeading(123.4f, 127.9f, nanos / 1000000L, nanos);
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryReading() {
+        long nanos = nextTimestampNanos();
+        return binaryWriter.encode(values[0], values[1], values[2], nanos / 1000000L, nanos);
+    }
+
+    /** The JSON path as the bridge sees it: the object plus its text */
+    @Benchmark
+    public PluginResult jsonReadingResult() throws JSONException {
+        long nanos = nextTimestampNanos();
+        return new PluginResult(PluginResult.Status.OK, JsonSampleWriter.createReading(values, nanos / 1000000L, nanos));
+    }
+
+    /** The binary path as the bridge sees it: the record plus its base64 text */
+    @Benchmark
+    public PluginResult binaryReadingResult() {
+        long nanos = nextTimestampNanos();
+        return new PluginResult(PluginResult.Status.OK,
+                binaryWriter.encode(values[0], values[1], values[2], nanos / 1000000L, nanos));
+    }
+}
@@ -0,0 +1,92 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sensor source backed by the device's SensorManager, delivering events on the given handler.
+ */
+class AndroidSensorSource implements SensorSource, SensorEventListener {
+
+    private final SensorManager sensorManager;
+    private final Handler handler;
+    private final Map<Integer, Sensor> sensors = new HashMap<Integer, Sensor>();
+    private Listener listener;
+
+    AndroidSensorSource(SensorManager sensorManager, Handler handler) {
+        this.sensorManager = sensorManager;
+        this.handler = handler;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean hasSensor(int sensorType) {
+        return getSensor(sensorType) != null;
+    }
+
+    @Override
+    public int getMinDelayUs(int sensorType) {
+        Sensor sensor = getSensor(sensorType);
+        return sensor != null ? sensor.getMinDelay() : 0;
+    }
+
+    @Override
+    public int getMaxDelayUs(int sensorType) {
+        Sensor sensor = getSensor(sensorType);
+        return sensor != null ? sensor.getMaxDelay() : 0;
+    }
+
+    @Override
+    public void register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs) {
+        Sensor sensor = getSensor(sensorType);
+        if (sensor != null) {
+            sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, handler);
+        }
+    }
+
+    @Override
+    public void unregister(int sensorType) {
+        Sensor sensor = getSensor(sensorType);
+        if (sensor != null) {
+            sensorManager.unregisterListener(this, sensor);
+        }
+    }
+
+    @Override
+    public void release() {
+        sensorManager.unregisterListener(this);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        Listener current = listener;
+        if (current != null) {
+            current.onSensorSample(event.sensor.getType(), event.values, event.accuracy, event.timestamp);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        Listener current = listener;
+        if (current != null) {
+            current.onSensorAccuracy(sensor.getType(), accuracy);
+        }
+    }
+
+    private Sensor getSensor(int sensorType) {
+        if (!sensors.containsKey(sensorType)) {
+            sensors.put(sensorType, sensorManager.getDefaultSensor(sensorType));
+        }
+        return sensors.get(sensorType);
+    }
+}
@@ -0,0 +1,17 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Estimates the hard-iron bias of the uncalibrated magnetometer stream, which is subtracted
+ * from the raw values before they are delivered. Runs on the sensor thread for every sample.
+ */
+interface BiasTracker {
+
+    /**
+     * Feed one TYPE_MAGNETIC_FIELD_UNCALIBRATED sample: the raw field in values[0..2]
+     * and the system's own bias estimate in values[3..5]
+     */
+    void update(float[] values, long timestampNanos);
+
+    /** Copy the current bias estimate (x, y, z) into out */
+    void getBias(float[] out);
+}
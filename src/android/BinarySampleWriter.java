@@ -0,0 +1,55 @@
+package com.community.cordova.magnetometer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Encodes samples into reused little-endian byte arrays for ArrayBuffer delivery.
+ *
+ * Record layout (28 bytes): float32 a, float32 b, float32 c, int64 timestamp (epoch ms),
+ * int64 timestampNanos (sensor time, elapsed realtime ns).
+ * Readings use a/b/c for x/y/z, headings for magneticHeading/trueHeading/headingAccuracy.
+ */
+class BinarySampleWriter {
+
+    static final int RECORD_SIZE = 28;
+
+    private final byte[] recordBytes = new byte[RECORD_SIZE];
+    private final ByteBuffer record = ByteBuffer.wrap(recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] batchBytes;
+    private final ByteBuffer batch;
+
+    BinarySampleWriter(int maxRecords) {
+        batchBytes = new byte[Math.max(1, maxRecords) * RECORD_SIZE];
+        batch = ByteBuffer.wrap(batchBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Encode a single record. The returned array is reused by the next call, which is
+     * safe because PluginResult encodes the bytes as soon as it is constructed.
+     */
+    byte[] encode(float a, float b, float c, long timestamp, long timestampNanos) {
+        record.clear();
+        record.putFloat(a).putFloat(b).putFloat(c).putLong(timestamp).putLong(timestampNanos);
+        return recordBytes;
+    }
+
+    void reset() {
+        batch.clear();
+    }
+
+    void append(float a, float b, float c, long timestamp, long timestampNanos) {
+        batch.putFloat(a).putFloat(b).putFloat(c).putLong(timestamp).putLong(timestampNanos);
+    }
+
+    /**
+     * Bytes appended since the last reset. A full batch returns the reused array;
+     * only a partial batch (latency flush) needs an exact-size copy.
+     */
+    byte[] toByteArray() {
+        int length = batch.position();
+        return length == batchBytes.length ? batchBytes : Arrays.copyOf(batchBytes, length);
+    }
+}
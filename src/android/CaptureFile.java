@@ -0,0 +1,185 @@
+package com.community.cordova.magnetometer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped capture of raw sensor samples in fixed-size records, for sampling at full rate
+ * without going through the bridge.
+ *
+ * The file starts with a 32-byte header: the ASCII magic "MAGC", int32 version, int32 record size,
+ * int32 reserved, int64 record count and int64 capture start (ms since epoch), followed by
+ * little-endian 36-byte records: int64 timestamp (ns), int16 sensor type, int16 value count and
+ * six float32 values, unused values being 0. The record count in the header is kept current while
+ * capturing, so a capture can be read while it is still being written.
+ * The file is extended and mapped in preallocated chunks; unused space is cut off when it is closed.
+ */
+final class CaptureFile {
+
+    static final int MAGIC = 0x4347414D; // "MAGC" read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 36;
+    static final int MAX_VALUES = 6;
+
+    private static final int COUNT_OFFSET = 16;
+    // Records per mapped chunk, about 2.3 MB
+    private static final int CHUNK_RECORDS = 65536;
+
+    private CaptureFile() {
+    }
+
+    static final class Writer implements Closeable {
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final long maxRecords;
+        private MappedByteBuffer chunk;
+        private long chunkStartRecord = 0;
+        private long recordCount = 0;
+        private long droppedCount = 0;
+        private long firstTimestampNanos = 0;
+        private long lastTimestampNanos = 0;
+
+        /**
+         * @param maxBytes size limit of the file; samples beyond it are counted as dropped
+         */
+        Writer(File file, long maxBytes) throws IOException {
+            this.file = file;
+            this.maxRecords = Math.max(0, (maxBytes - HEADER_SIZE) / RECORD_SIZE);
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.channel = randomAccessFile.getChannel();
+            try {
+                channel.truncate(0);
+                header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, RECORD_SIZE);
+                header.putInt(12, 0);
+                header.putLong(COUNT_OFFSET, 0);
+                header.putLong(24, System.currentTimeMillis());
+                mapChunk(0);
+            } catch (IOException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        long getRecordCount() {
+            return recordCount;
+        }
+
+        long getDroppedCount() {
+            return droppedCount;
+        }
+
+        long getDurationNanos() {
+            return lastTimestampNanos - firstTimestampNanos;
+        }
+
+        void write(int sensorType, long timestampNanos, float[] values) throws IOException {
+            if (recordCount >= maxRecords) {
+                droppedCount++;
+                return;
+            }
+            if (recordCount - chunkStartRecord == CHUNK_RECORDS) {
+                mapChunk(recordCount);
+            }
+
+            int count = Math.min(values.length, MAX_VALUES);
+            chunk.putLong(timestampNanos);
+            chunk.putShort((short) sensorType);
+            chunk.putShort((short) count);
+            for (int i = 0; i < MAX_VALUES; i++) {
+                chunk.putFloat(i < count ? values[i] : 0);
+            }
+
+            if (recordCount == 0) {
+                firstTimestampNanos = timestampNanos;
+            }
+            lastTimestampNanos = timestampNanos;
+            recordCount++;
+            header.putLong(COUNT_OFFSET, recordCount);
+        }
+
+        /**
+         * Write the header and records to storage and cut the file to its used length
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                chunk.force();
+                header.force();
+                channel.truncate(HEADER_SIZE + recordCount * RECORD_SIZE);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        private void mapChunk(long firstRecord) throws IOException {
+            if (chunk != null) {
+                chunk.force();
+            }
+            long records = Math.min(CHUNK_RECORDS, Math.max(1, maxRecords - firstRecord));
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + firstRecord * RECORD_SIZE,
+                    records * RECORD_SIZE);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunkStartRecord = firstRecord;
+        }
+    }
+
+    /**
+     * Read up to count records starting at record index first, as raw bytes in the record layout.
+     * The window is clipped to the records written so far.
+     */
+    static byte[] readWindow(File file, long first, int count) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long recordCount = readHeader(channel);
+            long start = Math.max(0, Math.min(first, recordCount));
+            int records = (int) Math.max(0, Math.min(count, recordCount - start));
+
+            ByteBuffer buffer = ByteBuffer.allocate(records * RECORD_SIZE);
+            long position = HEADER_SIZE + start * RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Truncated capture file");
+                }
+                position += read;
+            }
+            return buffer.array();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Not a capture file");
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a capture file");
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unsupported capture file version " + header.getInt(4));
+        }
+        return header.getLong(COUNT_OFFSET);
+    }
+}
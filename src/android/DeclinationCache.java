@@ -0,0 +1,136 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.GeomagneticField;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Magnetic declination at the device location, from the World Magnetic Model that ships with
+ * Android (GeomagneticField). The model is evaluated when the location is set and the result is
+ * reused until the device moves further than MAX_DISTANCE_M or MAX_ALTITUDE_CHANGE_M, or until it
+ * is older than MAX_AGE_MS, so converting a heading sample costs one volatile read and an add.
+ */
+final class DeclinationCache {
+
+    // Declination changes by well under 0.1 degrees over this distance outside the polar regions
+    private static final double MAX_DISTANCE_M = 5000;
+    private static final double MAX_ALTITUDE_CHANGE_M = 1000;
+    // Secular variation is a fraction of a degree per year
+    private static final long MAX_AGE_MS = 24L * 60 * 60 * 1000;
+    private static final double EARTH_RADIUS_M = 6371000;
+
+    /** Evaluated model at one location and time; immutable so the sensor thread can read it unlocked */
+    private static final class Entry {
+        final double latitude;
+        final double longitude;
+        final double altitude;
+        final long timeMillis;
+        final float declination;
+        final float inclination;
+        final float fieldStrength;
+
+        Entry(double latitude, double longitude, double altitude, long timeMillis) {
+            GeomagneticField field = new GeomagneticField((float) latitude, (float) longitude, (float) altitude, timeMillis);
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.altitude = altitude;
+            this.timeMillis = timeMillis;
+            this.declination = field.getDeclination();
+            this.inclination = field.getInclination();
+            // nT to uT
+            this.fieldStrength = field.getFieldStrength() / 1000f;
+        }
+    }
+
+    // Location from setLocation, null until one is set
+    private volatile double[] location;
+    private volatile Entry entry;
+
+    /**
+     * Set the device location in degrees and meters above the WGS84 ellipsoid.
+     * The model is evaluated again only if the location moved far enough from the cached one.
+     */
+    synchronized void setLocation(double latitude, double longitude, double altitude) {
+        location = new double[] {latitude, longitude, altitude};
+        Entry current = entry;
+        long now = System.currentTimeMillis();
+        if (current == null || isStale(current, latitude, longitude, altitude, now)) {
+            entry = new Entry(latitude, longitude, altitude, now);
+        }
+    }
+
+    synchronized void clear() {
+        location = null;
+        entry = null;
+    }
+
+    /**
+     * Add the declination to a magnetic heading.
+     * @param timeMillis time of the heading, to refresh the model once a day on long sessions
+     * @return the true heading in degrees (0-360), or the magnetic heading while no location is set
+     */
+    float toTrueHeading(float magneticHeading, long timeMillis) {
+        Entry current = entry;
+        if (current == null) {
+            return magneticHeading;
+        }
+        if (timeMillis - current.timeMillis > MAX_AGE_MS) {
+            current = refresh(timeMillis);
+            if (current == null) {
+                return magneticHeading;
+            }
+        }
+        float heading = (magneticHeading + current.declination) % 360f;
+        return heading < 0 ? heading + 360f : heading;
+    }
+
+    /**
+     * The location last set, with the declination, inclination and field strength of the cached
+     * model, which may have been evaluated at a nearby earlier location
+     * @return null while no location is set
+     */
+    synchronized JSONObject toJSON() throws JSONException {
+        double[] position = location;
+        Entry current = entry;
+        if (position == null || current == null) {
+            return null;
+        }
+        JSONObject result = new JSONObject();
+        result.put("latitude", position[0]);
+        result.put("longitude", position[1]);
+        result.put("altitude", position[2]);
+        result.put("declination", current.declination);
+        result.put("inclination", current.inclination);
+        result.put("fieldStrength", current.fieldStrength);
+        result.put("timestamp", current.timeMillis);
+        return result;
+    }
+
+    private synchronized Entry refresh(long timeMillis) {
+        double[] position = location;
+        Entry current = entry;
+        if (position != null && current != null && timeMillis - current.timeMillis > MAX_AGE_MS) {
+            current = new Entry(position[0], position[1], position[2], timeMillis);
+            entry = current;
+        }
+        return current;
+    }
+
+    private static boolean isStale(Entry entry, double latitude, double longitude, double altitude, long now) {
+        return now - entry.timeMillis > MAX_AGE_MS
+                || Math.abs(altitude - entry.altitude) > MAX_ALTITUDE_CHANGE_M
+                || distanceMeters(entry.latitude, entry.longitude, latitude, longitude) > MAX_DISTANCE_M;
+    }
+
+    /**
+     * Great-circle distance by the haversine formula
+     */
+    private static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,79 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Flow control for one watch.
+ *
+ * JS acknowledges payloads as it consumes them; once maxInFlight payloads are unacknowledged,
+ * samples wait in a bounded queue instead of piling up in the Cordova bridge. The policy decides
+ * what is kept: only the newest sample (latest), the newest queueSize samples sent one by one
+ * (dropOldest), or the newest queueSize samples sent together as one batch (batch).
+ */
+class DeliveryQueue {
+
+    static final String POLICY_LATEST = "latest";
+    static final String POLICY_DROP_OLDEST = "dropOldest";
+    static final String POLICY_BATCH = "batch";
+
+    private final SampleRing pending;
+    private final boolean batch;
+    private final int maxInFlight;
+    private int inFlight = 0;
+    private long dropped = 0;
+
+    DeliveryQueue(String policy, int queueSize, int maxInFlight) {
+        boolean latest = !POLICY_DROP_OLDEST.equals(policy) && !POLICY_BATCH.equals(policy);
+        this.pending = new SampleRing(latest ? 1 : queueSize);
+        this.batch = POLICY_BATCH.equals(policy);
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /** Whether everything pending is sent as one payload */
+    boolean isBatch() {
+        return batch;
+    }
+
+    int capacity() {
+        return pending.capacity();
+    }
+
+    boolean canSend() {
+        return inFlight < maxInFlight;
+    }
+
+    void onSent() {
+        inFlight++;
+    }
+
+    void acknowledge(int count) {
+        inFlight = Math.max(0, inFlight - Math.max(0, count));
+    }
+
+    /**
+     * Hold a sample until JS has credit for it.
+     * @return true if the oldest pending sample was dropped to make room
+     */
+    boolean enqueue(float a, float b, float c, long timestampNanos) {
+        boolean full = pending.size() == pending.capacity();
+        pending.add(a, b, c, timestampNanos);
+        if (full) {
+            dropped++;
+        }
+        return full;
+    }
+
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    SampleRing getPending() {
+        return pending;
+    }
+
+    int getInFlight() {
+        return inFlight;
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+}
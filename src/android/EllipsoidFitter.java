@@ -0,0 +1,366 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Incremental least-squares fit of magnetometer samples to an ellipsoid (hard-iron offset plus
+ * soft-iron matrix), with a sphere fit (hard-iron only) as fallback.
+ *
+ * Each sample only updates the normal equations of both models, so adding a sample is O(1),
+ * allocation-free and cheap enough to run at full sensor rate. The systems are solved on demand.
+ * Has no Android dependencies; EllipsoidFitterTest in test/ fits it to a recorded figure-8 trace.
+ */
+class EllipsoidFitter {
+
+    static final int MIN_SPHERE_SAMPLES = 20;
+    static final int MIN_ELLIPSOID_SAMPLES = 100;
+
+    // Minimum ratio of the smallest to the largest axis span for each model to be trusted
+    static final float MIN_SPHERE_COVERAGE = 0.2f;
+    static final float MIN_ELLIPSOID_COVERAGE = 0.5f;
+
+    // Work in hundreds of microteslas so the squared terms stay well conditioned
+    private static final double SCALE = 0.01;
+    private static final double PIVOT_EPSILON = 1e-12;
+
+    private static final int ELLIPSOID_PARAMS = 9;
+    private static final int SPHERE_PARAMS = 4;
+
+    // Normal equations (A^T A and A^T b) of a x^2 + b y^2 + c z^2 + 2d xy + 2e xz + 2f yz + 2g x + 2h y + 2i z = 1
+    private final double[] ellipsoidNormal = new double[ELLIPSOID_PARAMS * ELLIPSOID_PARAMS];
+    private final double[] ellipsoidRhs = new double[ELLIPSOID_PARAMS];
+
+    // Normal equations of 2g x + 2h y + 2i z + k = x^2 + y^2 + z^2
+    private final double[] sphereNormal = new double[SPHERE_PARAMS * SPHERE_PARAMS];
+    private final double[] sphereRhs = new double[SPHERE_PARAMS];
+    private double sphereRhsSquares;
+
+    private final double[] row = new double[ELLIPSOID_PARAMS];
+    private final double[] sphereRow = new double[SPHERE_PARAMS];
+    private final float[] min = new float[3];
+    private final float[] max = new float[3];
+    private int count;
+
+    // Solver scratch
+    private final double[] system = new double[ELLIPSOID_PARAMS * (ELLIPSOID_PARAMS + 1)];
+    private final double[] solution = new double[ELLIPSOID_PARAMS];
+    private final double[] quadric = new double[9];
+    private final double[] eigenVectors = new double[9];
+    private final double[] eigenValues = new double[3];
+
+    void reset() {
+        java.util.Arrays.fill(ellipsoidNormal, 0);
+        java.util.Arrays.fill(ellipsoidRhs, 0);
+        java.util.Arrays.fill(sphereNormal, 0);
+        java.util.Arrays.fill(sphereRhs, 0);
+        sphereRhsSquares = 0;
+        count = 0;
+    }
+
+    void add(float x, float y, float z) {
+        if (count == 0) {
+            min[0] = max[0] = x;
+            min[1] = max[1] = y;
+            min[2] = max[2] = z;
+        } else {
+            min[0] = Math.min(min[0], x);
+            min[1] = Math.min(min[1], y);
+            min[2] = Math.min(min[2], z);
+            max[0] = Math.max(max[0], x);
+            max[1] = Math.max(max[1], y);
+            max[2] = Math.max(max[2], z);
+        }
+        count++;
+
+        double sx = x * SCALE;
+        double sy = y * SCALE;
+        double sz = z * SCALE;
+
+        row[0] = sx * sx;
+        row[1] = sy * sy;
+        row[2] = sz * sz;
+        row[3] = 2 * sx * sy;
+        row[4] = 2 * sx * sz;
+        row[5] = 2 * sy * sz;
+        row[6] = 2 * sx;
+        row[7] = 2 * sy;
+        row[8] = 2 * sz;
+        for (int i = 0; i < ELLIPSOID_PARAMS; i++) {
+            double ri = row[i];
+            for (int j = i; j < ELLIPSOID_PARAMS; j++) {
+                ellipsoidNormal[i * ELLIPSOID_PARAMS + j] += ri * row[j];
+            }
+            ellipsoidRhs[i] += ri;
+        }
+
+        double squares = row[0] + row[1] + row[2];
+        sphereRow[0] = row[6];
+        sphereRow[1] = row[7];
+        sphereRow[2] = row[8];
+        sphereRow[3] = 1;
+        for (int i = 0; i < SPHERE_PARAMS; i++) {
+            double ri = sphereRow[i];
+            for (int j = i; j < SPHERE_PARAMS; j++) {
+                sphereNormal[i * SPHERE_PARAMS + j] += ri * sphereRow[j];
+            }
+            sphereRhs[i] += ri * squares;
+        }
+        sphereRhsSquares += squares * squares;
+    }
+
+    int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Ratio of the smallest to the largest per-axis span of the samples, 0-1.
+     * Low values mean the device has not been rotated through enough orientations.
+     */
+    float getCoverage() {
+        if (count < 2) {
+            return 0;
+        }
+        float smallest = Float.MAX_VALUE;
+        float largest = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            float span = max[axis] - min[axis];
+            smallest = Math.min(smallest, span);
+            largest = Math.max(largest, span);
+        }
+        return largest > 0 ? smallest / largest : 0;
+    }
+
+    /**
+     * Fit the samples collected so far, preferring the ellipsoid model when there are enough
+     * well-spread samples and it yields a valid ellipsoid.
+     * @return false if neither model could be fitted
+     */
+    boolean solve(MagneticCalibration out) {
+        float coverage = getCoverage();
+        if (count >= MIN_ELLIPSOID_SAMPLES && coverage >= MIN_ELLIPSOID_COVERAGE && solveEllipsoid(out)) {
+            return true;
+        }
+        return count >= MIN_SPHERE_SAMPLES && coverage >= MIN_SPHERE_COVERAGE && solveSphere(out);
+    }
+
+    private boolean solveEllipsoid(MagneticCalibration out) {
+        if (!solveNormalEquations(ellipsoidNormal, ellipsoidRhs, ELLIPSOID_PARAMS)) {
+            return false;
+        }
+        double[] p = solution;
+
+        // Quadric matrix M and linear term u; centre c = -M^-1 u
+        quadric[0] = p[0];
+        quadric[1] = p[3];
+        quadric[2] = p[4];
+        quadric[3] = p[3];
+        quadric[4] = p[1];
+        quadric[5] = p[5];
+        quadric[6] = p[4];
+        quadric[7] = p[5];
+        quadric[8] = p[2];
+
+        double det = determinant(quadric);
+        if (Math.abs(det) < PIVOT_EPSILON) {
+            return false;
+        }
+        double cx = -(cofactor(quadric, 0, 0) * p[6] + cofactor(quadric, 1, 0) * p[7] + cofactor(quadric, 2, 0) * p[8]) / det;
+        double cy = -(cofactor(quadric, 0, 1) * p[6] + cofactor(quadric, 1, 1) * p[7] + cofactor(quadric, 2, 1) * p[8]) / det;
+        double cz = -(cofactor(quadric, 0, 2) * p[6] + cofactor(quadric, 1, 2) * p[7] + cofactor(quadric, 2, 2) * p[8]) / det;
+
+        // (x - c)^T M (x - c) = 1 + c^T M c, so the normalized shape matrix is M / k.
+        // k is negative when the origin lies outside the ellipsoid, which flips the sign of M too.
+        double k = 1 - (p[6] * cx + p[7] * cy + p[8] * cz);
+        if (Math.abs(k) < PIVOT_EPSILON) {
+            return false;
+        }
+        for (int i = 0; i < 9; i++) {
+            quadric[i] /= k;
+        }
+
+        symmetricEigen(quadric, eigenValues, eigenVectors);
+        if (eigenValues[0] <= 0 || eigenValues[1] <= 0 || eigenValues[2] <= 0) {
+            return false;
+        }
+
+        // Map the ellipsoid onto a sphere whose radius is the geometric mean of the semi-axes
+        double radius = Math.pow(eigenValues[0] * eigenValues[1] * eigenValues[2], -1.0 / 6.0);
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                double sum = 0;
+                for (int e = 0; e < 3; e++) {
+                    sum += eigenVectors[r * 3 + e] * Math.sqrt(eigenValues[e]) * eigenVectors[c * 3 + e];
+                }
+                out.matrix[r * 3 + c] = (float) (radius * sum);
+            }
+        }
+        out.offset[0] = (float) (cx / SCALE);
+        out.offset[1] = (float) (cy / SCALE);
+        out.offset[2] = (float) (cz / SCALE);
+        out.fieldStrength = (float) (radius / SCALE);
+        out.softIron = true;
+
+        // Residual of the normalized quadric form, which is about twice the relative radius error
+        double residual = quadraticResidual(ellipsoidNormal, ellipsoidRhs, count, ELLIPSOID_PARAMS);
+        out.fitError = (float) (Math.sqrt(Math.max(0, residual) / count) / (2 * Math.abs(k)));
+        out.sampleCount = count;
+        return true;
+    }
+
+    private boolean solveSphere(MagneticCalibration out) {
+        if (!solveNormalEquations(sphereNormal, sphereRhs, SPHERE_PARAMS)) {
+            return false;
+        }
+        double cx = solution[0];
+        double cy = solution[1];
+        double cz = solution[2];
+        double radiusSquared = solution[3] + cx * cx + cy * cy + cz * cz;
+        if (radiusSquared <= 0) {
+            return false;
+        }
+
+        out.setIdentity();
+        out.offset[0] = (float) (cx / SCALE);
+        out.offset[1] = (float) (cy / SCALE);
+        out.offset[2] = (float) (cz / SCALE);
+        out.fieldStrength = (float) (Math.sqrt(radiusSquared) / SCALE);
+        out.softIron = false;
+
+        // Residual of |x - c|^2 - r^2, relative to 2 r^2 to approximate the relative radius error
+        double residual = quadraticResidual(sphereNormal, sphereRhs, sphereRhsSquares, SPHERE_PARAMS);
+        out.fitError = (float) (Math.sqrt(Math.max(0, residual) / count) / (2 * radiusSquared));
+        out.sampleCount = count;
+        return true;
+    }
+
+    /**
+     * Solve the symmetric system (upper triangle stored) into solution using
+     * Gaussian elimination with partial pivoting on the preallocated scratch matrix.
+     */
+    private boolean solveNormalEquations(double[] normal, double[] rhs, int n) {
+        int width = n + 1;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                system[i * width + j] = i <= j ? normal[i * n + j] : normal[j * n + i];
+            }
+            system[i * width + n] = rhs[i];
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < n; r++) {
+                if (Math.abs(system[r * width + col]) > Math.abs(system[pivot * width + col])) {
+                    pivot = r;
+                }
+            }
+            if (Math.abs(system[pivot * width + col]) < PIVOT_EPSILON) {
+                return false;
+            }
+            if (pivot != col) {
+                for (int c = col; c < width; c++) {
+                    double tmp = system[col * width + c];
+                    system[col * width + c] = system[pivot * width + c];
+                    system[pivot * width + c] = tmp;
+                }
+            }
+            for (int r = col + 1; r < n; r++) {
+                double factor = system[r * width + col] / system[col * width + col];
+                for (int c = col; c < width; c++) {
+                    system[r * width + c] -= factor * system[col * width + c];
+                }
+            }
+        }
+
+        for (int r = n - 1; r >= 0; r--) {
+            double sum = system[r * width + n];
+            for (int c = r + 1; c < n; c++) {
+                sum -= system[r * width + c] * solution[c];
+            }
+            solution[r] = sum / system[r * width + r];
+        }
+        return true;
+    }
+
+    /**
+     * Sum of squared residuals |A p - b|^2 = p^T (A^T A) p - 2 p^T (A^T b) + b^T b for the current solution
+     */
+    private double quadraticResidual(double[] normal, double[] rhs, double rhsSquares, int n) {
+        double residual = rhsSquares;
+        for (int i = 0; i < n; i++) {
+            residual -= 2 * solution[i] * rhs[i];
+            for (int j = 0; j < n; j++) {
+                double nij = i <= j ? normal[i * n + j] : normal[j * n + i];
+                residual += solution[i] * nij * solution[j];
+            }
+        }
+        return residual;
+    }
+
+    private static double determinant(double[] m) {
+        return m[0] * (m[4] * m[8] - m[5] * m[7])
+                - m[1] * (m[3] * m[8] - m[5] * m[6])
+                + m[2] * (m[3] * m[7] - m[4] * m[6]);
+    }
+
+    private static double cofactor(double[] m, int row, int col) {
+        int r0 = row == 0 ? 1 : 0;
+        int r1 = row == 2 ? 1 : 2;
+        int c0 = col == 0 ? 1 : 0;
+        int c1 = col == 2 ? 1 : 2;
+        double minor = m[r0 * 3 + c0] * m[r1 * 3 + c1] - m[r0 * 3 + c1] * m[r1 * 3 + c0];
+        return ((row + col) % 2 == 0) ? minor : -minor;
+    }
+
+    /**
+     * Cyclic Jacobi eigen decomposition of a symmetric 3x3 matrix. The matrix is destroyed;
+     * eigenvectors are stored as the columns of vectors.
+     */
+    private static void symmetricEigen(double[] a, double[] values, double[] vectors) {
+        for (int i = 0; i < 9; i++) {
+            vectors[i] = (i % 4 == 0) ? 1 : 0;
+        }
+
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double offDiagonal = Math.abs(a[1]) + Math.abs(a[2]) + Math.abs(a[5]);
+            if (offDiagonal < 1e-15) {
+                break;
+            }
+            for (int p = 0; p < 2; p++) {
+                for (int q = p + 1; q < 3; q++) {
+                    double apq = a[p * 3 + q];
+                    if (Math.abs(apq) < 1e-18) {
+                        continue;
+                    }
+                    double theta = (a[q * 3 + q] - a[p * 3 + p]) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+
+                    for (int k = 0; k < 3; k++) {
+                        double akp = a[k * 3 + p];
+                        double akq = a[k * 3 + q];
+                        a[k * 3 + p] = c * akp - s * akq;
+                        a[k * 3 + q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double apk = a[p * 3 + k];
+                        double aqk = a[q * 3 + k];
+                        a[p * 3 + k] = c * apk - s * aqk;
+                        a[q * 3 + k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double vkp = vectors[k * 3 + p];
+                        double vkq = vectors[k * 3 + q];
+                        vectors[k * 3 + p] = c * vkp - s * vkq;
+                        vectors[k * 3 + q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+
+        values[0] = a[0];
+        values[1] = a[4];
+        values[2] = a[8];
+    }
+}
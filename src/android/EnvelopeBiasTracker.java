@@ -0,0 +1,65 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Tracks the hard-iron bias continuously as the center of a slowly shrinking min/max envelope of each axis.
+ *
+ * The envelope widens immediately to include every sample and contracts with a long time constant,
+ * so it forgets old extremes after the magnetic environment changes. The delivered bias follows the
+ * envelope center through a low-pass filter and only once every axis has been swept across a
+ * plausible span, so it never jumps the way the system calibration does. It starts from the
+ * system's estimate in the first sample.
+ */
+class EnvelopeBiasTracker implements BiasTracker {
+
+    // Time constant of the envelope contraction
+    private static final double ENVELOPE_TIME_CONSTANT_S = 120;
+    // Time constant of the delivered bias following the envelope center
+    private static final double BIAS_TIME_CONSTANT_S = 10;
+    // Span in uT each axis must cover before its envelope is trusted, about the Earth's field strength
+    private static final float MIN_SPAN_UT = 40;
+    // Longer gaps between samples, e.g. while paused, count as this long
+    private static final double MAX_STEP_S = 1;
+
+    private final float[] min = new float[3];
+    private final float[] max = new float[3];
+    private final float[] bias = new float[3];
+    private long lastTimestampNanos = 0;
+
+    @Override
+    public void update(float[] values, long timestampNanos) {
+        if (lastTimestampNanos == 0) {
+            for (int i = 0; i < 3; i++) {
+                min[i] = values[i];
+                max[i] = values[i];
+                bias[i] = values.length >= 6 ? values[3 + i] : 0;
+            }
+            lastTimestampNanos = timestampNanos;
+            return;
+        }
+
+        double dt = Math.min(MAX_STEP_S, Math.max(0, (timestampNanos - lastTimestampNanos) / 1e9));
+        lastTimestampNanos = timestampNanos;
+        double contraction = dt / ENVELOPE_TIME_CONSTANT_S / 2;
+        double follow = 1 - Math.exp(-dt / BIAS_TIME_CONSTANT_S);
+
+        boolean swept = true;
+        for (int i = 0; i < 3; i++) {
+            float shrink = (float) ((max[i] - min[i]) * contraction);
+            max[i] = Math.max(max[i] - shrink, values[i]);
+            min[i] = Math.min(min[i] + shrink, values[i]);
+            swept &= max[i] - min[i] >= MIN_SPAN_UT;
+        }
+        if (!swept) {
+            return;
+        }
+        for (int i = 0; i < 3; i++) {
+            float center = (max[i] + min[i]) / 2;
+            bias[i] += (float) ((center - bias[i]) * follow);
+        }
+    }
+
+    @Override
+    public void getBias(float[] out) {
+        System.arraycopy(bias, 0, out, 0, 3);
+    }
+}
@@ -0,0 +1,93 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Decides which heading samples are worth sending to JS.
+ *
+ * Samples are optionally smoothed with an exponential moving average, then dropped unless the
+ * smoothed heading moved at least the deadband since the last emitted heading and at least
+ * the minimum interval has passed. Angle differences wrap, so 359 to 1 degrees is a 2 degree change.
+ */
+class HeadingFilter {
+
+    private final float deadbandDegrees;
+    private final long minIntervalNanos;
+    private final float smoothing;
+
+    private boolean hasSmoothed = false;
+    private float smoothedHeading;
+
+    private boolean hasEmitted = false;
+    private float emittedHeading;
+    private long emittedTimestampNanos;
+
+    /**
+     * @param deadbandDegrees minimum change from the last emitted heading, 0 to emit every change
+     * @param minIntervalMs minimum time between emitted headings, 0 for no limit
+     * @param smoothing EMA weight of the previous value in [0, 1), 0 to disable smoothing
+     */
+    HeadingFilter(float deadbandDegrees, long minIntervalMs, float smoothing) {
+        this.deadbandDegrees = Math.max(0, deadbandDegrees);
+        this.minIntervalNanos = Math.max(0, minIntervalMs) * 1000000L;
+        this.smoothing = Math.max(0, Math.min(0.99f, smoothing));
+    }
+
+    /**
+     * Feed a raw heading sample.
+     * @return true if the sample should be emitted; the value to emit is {@link #getHeading()}
+     */
+    boolean accept(float heading, long timestampNanos) {
+        if (!hasSmoothed || smoothing == 0) {
+            smoothedHeading = heading;
+            hasSmoothed = true;
+        } else {
+            smoothedHeading = normalize(smoothedHeading + (1 - smoothing) * angleDelta(heading, smoothedHeading));
+        }
+
+        if (hasEmitted) {
+            if (timestampNanos - emittedTimestampNanos < minIntervalNanos) {
+                return false;
+            }
+            if (Math.abs(angleDelta(smoothedHeading, emittedHeading)) < deadbandDegrees) {
+                return false;
+            }
+        }
+
+        hasEmitted = true;
+        emittedHeading = smoothedHeading;
+        emittedTimestampNanos = timestampNanos;
+        return true;
+    }
+
+    /**
+     * The last emitted (smoothed) heading in degrees (0-360)
+     */
+    float getHeading() {
+        return emittedHeading;
+    }
+
+    /**
+     * Forget the smoothed and last emitted heading, so the next sample is emitted as is
+     */
+    void reset() {
+        hasSmoothed = false;
+        hasEmitted = false;
+    }
+
+    /**
+     * Signed shortest rotation from one heading to another, in (-180, 180]
+     */
+    static float angleDelta(float to, float from) {
+        float delta = (to - from) % 360;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta <= -180) {
+            delta += 360;
+        }
+        return delta;
+    }
+
+    private static float normalize(float heading) {
+        heading %= 360;
+        return heading < 0 ? heading + 360 : heading;
+    }
+}
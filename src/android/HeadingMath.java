@@ -0,0 +1,65 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.SensorManager;
+
+/**
+ * Magnetic azimuth of the per-sample heading path.
+ * Depends only on the static SensorManager math, so it can be benchmarked on a JVM alongside
+ * JsonSampleWriter and HeadingFilter.
+ */
+final class HeadingMath {
+
+    private HeadingMath() {
+    }
+
+    /**
+     * Magnetic azimuth in degrees (0-360) from accelerometer and magnetometer values.
+     * R and orientation are caller-owned scratch buffers (9 and 3 floats).
+     */
+    static float calculateAzimuth(float[] magValues, float[] accelValues, float[] R, float[] orientation) {
+        if (!calculateOrientation(magValues, accelValues, R, orientation)) {
+            return 0;
+        }
+        return toAzimuth(orientation);
+    }
+
+    /**
+     * Magnetic azimuth in degrees (0-360) from a rotation vector sensor sample
+     */
+    static float calculateAzimuth(float[] rotationVectorValues, float[] R, float[] orientation) {
+        calculateOrientation(rotationVectorValues, R, orientation);
+        return toAzimuth(orientation);
+    }
+
+    /**
+     * Azimuth, pitch and roll in radians from accelerometer and magnetometer values.
+     * @return false, leaving orientation untouched, when no rotation matrix can be computed,
+     * as in free fall or before the accelerometer has reported
+     */
+    static boolean calculateOrientation(float[] magValues, float[] accelValues, float[] R, float[] orientation) {
+        if (!SensorManager.getRotationMatrix(R, null, accelValues, magValues)) {
+            return false;
+        }
+        SensorManager.getOrientation(R, orientation);
+        return true;
+    }
+
+    /**
+     * Azimuth, pitch and roll in radians from a rotation vector sensor sample
+     */
+    static void calculateOrientation(float[] rotationVectorValues, float[] R, float[] orientation) {
+        SensorManager.getRotationMatrixFromVector(R, rotationVectorValues);
+        SensorManager.getOrientation(R, orientation);
+    }
+
+    /**
+     * Azimuth in degrees (0-360) of an orientation from calculateOrientation
+     */
+    static float toAzimuth(float[] orientation) {
+        float azimuth = (float) Math.toDegrees(orientation[0]);
+        if (azimuth < 0) {
+            azimuth += 360;
+        }
+        return azimuth;
+    }
+}
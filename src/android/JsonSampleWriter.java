@@ -0,0 +1,68 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the JSON payloads of readings and headings.
+ * Depends only on org.json, so the serialization cost of the per-sample path can be
+ * measured on a plain JVM alongside SampleRing, BinarySampleWriter and HeadingFilter.
+ */
+final class JsonSampleWriter {
+
+    private JsonSampleWriter() {
+    }
+
+    /**
+     * @param timestamp epoch milliseconds
+     * @param timestampNanos sensor timestamp, elapsed realtime nanoseconds
+     */
+    static JSONObject createReading(float[] values, long timestamp, long timestampNanos) throws JSONException {
+        JSONObject reading = new JSONObject();
+        reading.put("x", values[0]);
+        reading.put("y", values[1]);
+        reading.put("z", values[2]);
+        reading.put("magnitude", calculateMagnitude(values));
+        reading.put("timestamp", timestamp);
+        reading.put("timestampNanos", timestampNanos);
+        return reading;
+    }
+
+    /**
+     * Add the raw values and bias estimates of an uncalibrated reading
+     */
+    static void addBias(JSONObject reading, float[] raw, float[] systemBias, float[] bias) throws JSONException {
+        reading.put("raw", createVector(raw));
+        reading.put("systemBias", createVector(systemBias));
+        reading.put("bias", createVector(bias));
+    }
+
+    /**
+     * @param trueHeading magnetic heading corrected by the declination, or the magnetic heading without a location
+     */
+    static JSONObject createHeading(float azimuth, float trueHeading, long timestamp, long timestampNanos)
+            throws JSONException {
+        JSONObject heading = new JSONObject();
+        heading.put("magneticHeading", azimuth);
+        heading.put("trueHeading", trueHeading);
+        heading.put("headingAccuracy", -1); // Not available on Android
+        heading.put("timestamp", timestamp);
+        heading.put("timestampNanos", timestampNanos);
+        return heading;
+    }
+
+    private static JSONObject createVector(float[] values) throws JSONException {
+        JSONObject vector = new JSONObject();
+        vector.put("x", values[0]);
+        vector.put("y", values[1]);
+        vector.put("z", values[2]);
+        return vector;
+    }
+
+    static double calculateMagnitude(float[] values) {
+        float x = values[0];
+        float y = values[1];
+        float z = values[2];
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+}
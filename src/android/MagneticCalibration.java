@@ -0,0 +1,74 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Hard-iron offset and soft-iron matrix applied to magnetometer samples:
+ * corrected = matrix * (raw - offset).
+ * Instances are replaced rather than mutated once published, so readers on any thread see a consistent set.
+ */
+class MagneticCalibration {
+
+    final float[] offset = new float[3];
+    // Row-major 3x3
+    final float[] matrix = new float[9];
+    float fieldStrength;
+    float fitError;
+    int sampleCount;
+    boolean softIron;
+    // Fitted on TYPE_MAGNETIC_FIELD_UNCALIBRATED: offset is the full hard-iron offset and the
+    // calibration applies to raw samples. Otherwise it is a residual on the system-corrected stream.
+    boolean raw;
+    long timestamp;
+    boolean active;
+
+    MagneticCalibration() {
+        setIdentity();
+    }
+
+    void setIdentity() {
+        for (int i = 0; i < 9; i++) {
+            matrix[i] = (i % 4 == 0) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Correct a sample. in and out may be the same array.
+     */
+    void apply(float[] in, float[] out) {
+        float x = in[0] - offset[0];
+        float y = in[1] - offset[1];
+        float z = in[2] - offset[2];
+        out[0] = matrix[0] * x + matrix[1] * y + matrix[2] * z;
+        out[1] = matrix[3] * x + matrix[4] * y + matrix[5] * z;
+        out[2] = matrix[6] * x + matrix[7] * y + matrix[8] * z;
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("active", active);
+        if (!active) {
+            return result;
+        }
+
+        JSONArray offsetArray = new JSONArray();
+        for (float value : offset) {
+            offsetArray.put(value);
+        }
+        JSONArray matrixArray = new JSONArray();
+        for (float value : matrix) {
+            matrixArray.put(value);
+        }
+        result.put("offset", offsetArray);
+        result.put("matrix", matrixArray);
+        result.put("softIron", softIron);
+        result.put("frame", raw ? "uncalibrated" : "calibrated");
+        result.put("fieldStrength", fieldStrength);
+        result.put("fitError", fitError);
+        result.put("sampleCount", sampleCount);
+        result.put("timestamp", timestamp);
+        return result;
+    }
+}
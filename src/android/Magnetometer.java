@@ -1,12 +1,13 @@
 package com.community.cordova.magnetometer;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
@@ -16,37 +17,150 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public class Magnetometer extends CordovaPlugin implements SensorEventListener {
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Magnetometer extends CordovaPlugin {
 
     private static final String LOG_TAG = "Magnetometer";
 
     // Error codes - matching DeviceOrientation plugin convention
     private static final int ERROR_NOT_AVAILABLE = 3;
+    private static final int ERROR_CALIBRATION_FAILED = 4;
+
+    private static final String FORMAT_BINARY = "binary";
+
+    // Heading sources for watchHeading
+    private static final String SOURCE_ROTATION_VECTOR = "rotationVector";
+    private static final String SOURCE_GEOMAGNETIC_ROTATION_VECTOR = "geomagneticRotationVector";
+    private static final String SOURCE_ACCEL_MAG = "accelMag";
+
+    // Capture files stop growing at this size unless startCapture says otherwise
+    private static final long DEFAULT_CAPTURE_MAX_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_CAPTURE_WINDOW_RECORDS = 4096;
+    private static final int MAX_CAPTURE_WINDOW_RECORDS = 65536;
+
+    // Analytics defaults: 50 Hz input, a 1 s window, one summary per second
+    private static final int DEFAULT_ANALYTICS_FREQUENCY_MS = 20;
+    private static final int DEFAULT_ANALYTICS_WINDOW_MS = 1000;
+    private static final int DEFAULT_ANALYTICS_SUMMARY_INTERVAL_MS = 1000;
+    private static final double DEFAULT_ANALYTICS_HYSTERESIS_UT = 2;
+
+    // Bias subtracted from uncalibrated readings
+    private static final String BIAS_TRACKER_NONE = "none";
+    private static final String BIAS_TRACKER_SYSTEM = "system";
+    private static final String BIAS_TRACKER_ENVELOPE = "envelope";
+
+    // What a watch does while the app is in the background
+    private static final String BACKGROUND_PAUSE = "pause";
+    private static final String BACKGROUND_REDUCE = "reduce";
+    private static final String BACKGROUND_CONTINUE = "continue";
+    private static final int DEFAULT_BACKGROUND_FREQUENCY_MS = 1000;
+    // On resume, paused or reduced watches are seeded with a cached sample at most this old
+    private static final long RESUME_SEED_MAX_AGE_MS = 2000;
+
+    // One-shot requests are answered from the hub cache when a sample is at most this old, unless they pass maxAgeMs
+    private static final long CACHE_MAX_AGE_MS = 250;
+    // Sampling period used while a one-shot request waits for a sample (SENSOR_DELAY_UI)
+    private static final int ONE_SHOT_PERIOD_US = 66667;
+    private static final long ONE_SHOT_TIMEOUT_MS = 1000;
+
+    private static final String CALIBRATION_PREFERENCES = "MagnetometerCalibration";
+    private static final long DEFAULT_CALIBRATION_DURATION_MS = 15000;
+    private static final long CALIBRATION_PROGRESS_INTERVAL_MS = 500;
 
     private SensorManager sensorManager;
+    private SensorHub sensorHub;
+    private final PluginMetrics metrics = new PluginMetrics();
+    // Sensor timestamp to epoch time mapping shared by all streams
+    private final SensorClock clock = new SensorClock();
+    // Declination at the location from setLocation, turning magnetic headings into true headings
+    private final DeclinationCache declination = new DeclinationCache();
+    private AndroidSensorSource deviceSource;
     private Sensor magnetometer;
     private Sensor rotationVector;
+    private Sensor geomagneticRotationVector;
+    private Sensor accelerometer;
+    private Sensor uncalibratedMagnetometer;
 
-    private CallbackContext watchCallbackContext;
-    private CallbackContext watchHeadingCallbackContext;
+    // Active watches by ID, only touched on the sensor thread
+    private final Map<String, Watch> watches = new LinkedHashMap<String, Watch>();
+    // In-flight one-shot sample acquisitions by sensor type, only touched on the sensor thread
+    private final Map<Integer, SampleAcquisition> acquisitions = new HashMap<Integer, SampleAcquisition>();
+    // Watches re-subscribe per their background policy while this is set
+    private boolean paused = false;
 
-    private float[] magnetometerValues = new float[3];
-    private float[] rotationMatrix = new float[9];
-    private float[] orientationValues = new float[3];
+    // Scratch buffers for the heading watch, only touched on the sensor thread
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientationValues = new float[3];
 
     private int currentAccuracy = SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
     private boolean calibrationNeeded = false;
 
+    // Active hard/soft-iron calibration. Replaced, never mutated, so one-shot requests can read it off the sensor thread
+    private volatile MagneticCalibration calibration = new MagneticCalibration();
+    private final EllipsoidFitter calibrationFitter = new EllipsoidFitter();
+    private CallbackContext calibrationCallbackContext;
+    // Sensor the running calibration collects from
+    private int calibrationSensorType;
+
+    // Raw event recording and replay, only touched on the sensor thread
+    private SensorRecording.Writer recorder;
+    private ReplaySensorSource replaySource;
+    private CallbackContext replayCallbackContext;
+
+    // Full-rate capture to a memory-mapped file, only touched on the sensor thread
+    private CaptureFile.Writer capture;
+
+    // All sensor callbacks, watch state and timeouts live on this thread, off the UI thread
+    private HandlerThread sensorThread;
     private Handler handler;
-    private Runnable watchRunnable;
-    private Runnable watchHeadingRunnable;
+
+    private final Runnable calibrationProgressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sendCalibrationProgress();
+            handler.postDelayed(this, CALIBRATION_PROGRESS_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable calibrationFinishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            finishCalibration();
+        }
+    };
 
     @Override
     protected void pluginInitialize() {
         sensorManager = (SensorManager) cordova.getActivity().getSystemService(Context.SENSOR_SERVICE);
         magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
         rotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-        handler = new Handler(Looper.getMainLooper());
+        geomagneticRotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR);
+        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        uncalibratedMagnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED);
+        sensorThread = new HandlerThread("MagnetometerSensors", Process.THREAD_PRIORITY_DISPLAY);
+        sensorThread.start();
+        handler = new Handler(sensorThread.getLooper());
+        calibration = loadCalibration();
+
+        deviceSource = new AndroidSensorSource(sensorManager, handler);
+        sensorHub = new SensorHub(deviceSource, metrics);
+        sensorHub.setAccuracyListener(new SensorHub.AccuracyListener() {
+            @Override
+            public void onAccuracyChanged(int sensorType, int accuracy) {
+                if (sensorType == Sensor.TYPE_MAGNETIC_FIELD || sensorType == Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED) {
+                    currentAccuracy = accuracy;
+                    calibrationNeeded = accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
+                }
+            }
+        });
     }
 
     @Override
@@ -56,27 +170,66 @@ public class Magnetometer extends CordovaPlugin implements SensorEventListener {
                 isAvailable(callbackContext);
                 return true;
             case "getReading":
-                getReading(callbackContext);
+                getReading(callbackContext, getMaxAge(args));
                 return true;
             case "getHeading":
-                getHeading(callbackContext);
+                getHeading(callbackContext, getMaxAge(args));
                 return true;
             case "watchReadings":
-                int frequency = args.optInt(0, 100);
-                watchReadings(callbackContext, frequency);
+                JSONObject watchOptions = args.optJSONObject(1);
+                if (watchOptions != null && watchOptions.optBoolean("uncalibrated", false)
+                        && uncalibratedMagnetometer == null) {
+                    sendError(callbackContext, ERROR_NOT_AVAILABLE, "Uncalibrated magnetometer not available");
+                    return true;
+                }
+                startWatch(new ReadingsWatch(getWatchId(watchOptions, PluginMetrics.WATCH_READINGS), callbackContext,
+                        args.optInt(0, 100), watchOptions, createDeliveryQueue(watchOptions)));
                 return true;
             case "stopWatch":
-                stopWatch(callbackContext);
+                stopWatch(callbackContext, args.optString(0, ""), PluginMetrics.WATCH_READINGS);
                 return true;
             case "watchHeading":
-                int headingFrequency = args.optInt(0, 100);
-                watchHeading(callbackContext, headingFrequency);
+                JSONObject headingOptions = args.optJSONObject(2);
+                if (!isHeadingSource(getHeadingSource(headingOptions))) {
+                    callbackContext.error("Unknown heading source '" + getHeadingSource(headingOptions) + "'");
+                    return true;
+                }
+                startWatch(new HeadingWatch(getWatchId(headingOptions, PluginMetrics.WATCH_HEADING), callbackContext,
+                        args.optInt(0, 100), (float) args.optDouble(1, 0), headingOptions,
+                        createDeliveryQueue(headingOptions)));
                 return true;
             case "stopWatchHeading":
-                stopWatchHeading(callbackContext);
+                stopWatch(callbackContext, args.optString(0, ""), PluginMetrics.WATCH_HEADING);
+                return true;
+            case "watchAnalytics":
+                JSONObject analyticsOptions = args.optJSONObject(0);
+                startWatch(new AnalyticsWatch(getWatchId(analyticsOptions, PluginMetrics.WATCH_ANALYTICS), callbackContext,
+                        analyticsOptions));
+                return true;
+            case "stopAnalytics":
+                stopWatch(callbackContext, args.optString(0, ""), PluginMetrics.WATCH_ANALYTICS);
+                return true;
+            case "watchMotion":
+                JSONObject motionOptions = args.optJSONObject(1);
+                if (!isHeadingSource(getHeadingSource(motionOptions))) {
+                    callbackContext.error("Unknown heading source '" + getHeadingSource(motionOptions) + "'");
+                    return true;
+                }
+                startWatch(new MotionWatch(getWatchId(motionOptions, PluginMetrics.WATCH_MOTION), callbackContext,
+                        args.optInt(0, 100), motionOptions));
+                return true;
+            case "stopMotion":
+                stopWatch(callbackContext, args.optString(0, ""), PluginMetrics.WATCH_MOTION);
+                return true;
+            case "ackWatch":
+                acknowledgeWatch(args.optString(0), args.optInt(1, 1));
+                callbackContext.success();
+                return true;
+            case "setLocation":
+                setLocation(callbackContext, args);
                 return true;
             case "getMagnetometerInfo":
-                getMagnetometerInfo(callbackContext);
+                getMagnetometerInfo(callbackContext, getMaxAge(args));
                 return true;
             case "getAccuracy":
                 getAccuracy(callbackContext);
@@ -85,7 +238,57 @@ public class Magnetometer extends CordovaPlugin implements SensorEventListener {
                 isCalibrationNeeded(callbackContext);
                 return true;
             case "getFieldStrength":
-                getFieldStrength(callbackContext);
+                getFieldStrength(callbackContext, getMaxAge(args));
+                return true;
+            case "getWatchInfo":
+                getWatchInfo(callbackContext);
+                return true;
+            case "startCalibration":
+                JSONObject calibrationOptions = args.optJSONObject(0);
+                long durationMs = calibrationOptions != null
+                        ? calibrationOptions.optLong("durationMs", DEFAULT_CALIBRATION_DURATION_MS)
+                        : DEFAULT_CALIBRATION_DURATION_MS;
+                startCalibration(callbackContext, durationMs);
+                return true;
+            case "getCalibration":
+                callbackContext.success(calibration.toJSON());
+                return true;
+            case "resetCalibration":
+                resetCalibration(callbackContext);
+                return true;
+            case "startRecording":
+                startRecording(callbackContext, args.optString(0, null));
+                return true;
+            case "stopRecording":
+                stopRecording(callbackContext);
+                return true;
+            case "startCapture":
+                startCapture(callbackContext, args.optJSONObject(0));
+                return true;
+            case "stopCapture":
+                stopCapture(callbackContext);
+                return true;
+            case "readCapture":
+                readCapture(callbackContext, args.optString(0, null), args.optLong(1, 0),
+                        args.optInt(2, DEFAULT_CAPTURE_WINDOW_RECORDS));
+                return true;
+            case "startReplay":
+                JSONObject replayOptions = args.optJSONObject(0);
+                String replayPath = replayOptions != null ? replayOptions.optString("path", null) : null;
+                boolean realtime = replayOptions == null || !"max".equals(replayOptions.optString("speed"));
+                startReplay(callbackContext, replayPath, realtime);
+                return true;
+            case "stopReplay":
+                stopReplay(callbackContext);
+                return true;
+            case "getMetrics":
+                JSONObject metricsInfo = metrics.toJSON();
+                metricsInfo.put("clock", clock.toJSON());
+                callbackContext.success(metricsInfo);
+                return true;
+            case "resetMetrics":
+                metrics.reset();
+                callbackContext.success();
                 return true;
             default:
                 return false;
@@ -97,463 +300,1674 @@ public class Magnetometer extends CordovaPlugin implements SensorEventListener {
         callbackContext.success(available ? 1 : 0);
     }
 
-    private void getReading(final CallbackContext callbackContext) {
+    /**
+     * maxAgeMs option of a one-shot call, from args [options]
+     */
+    private static long getMaxAge(JSONArray args) {
+        JSONObject options = args.optJSONObject(0);
+        return options != null ? Math.max(0, options.optLong("maxAgeMs", CACHE_MAX_AGE_MS)) : CACHE_MAX_AGE_MS;
+    }
+
+    private void getReading(final CallbackContext callbackContext, long maxAgeMs) {
         if (magnetometer == null) {
             sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
             return;
         }
 
-        cordova.getThreadPool().execute(new Runnable() {
+        final int fieldType = getFieldSensorType();
+        new OneShotRequest(callbackContext, "Timeout waiting for magnetometer reading", maxAgeMs, fieldType) {
             @Override
-            public void run() {
-                final boolean[] dataReceived = {false};
-
-                SensorEventListener listener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        if (!dataReceived[0] && event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                            dataReceived[0] = true;
-                            sensorManager.unregisterListener(this);
-
-                            try {
-                                JSONObject reading = createReadingObject(event.values);
-                                callbackContext.success(reading);
-                            } catch (JSONException e) {
-                                callbackContext.error("Failed to create reading: " + e.getMessage());
-                            }
-                        }
-                    }
-
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-                        currentAccuracy = accuracy;
-                        calibrationNeeded = accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
-                    }
-                };
-
-                sensorManager.registerListener(listener, magnetometer, SensorManager.SENSOR_DELAY_UI);
-
-                // Timeout after 1 second
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!dataReceived[0]) {
-                            dataReceived[0] = true;
-                            callbackContext.error("Timeout waiting for magnetometer reading");
-                        }
-                    }
-                }, 1000);
+            void onSamples(float[][] values, long timestampNanos) {
+                try {
+                    callbackContext.success(createReadingObject(calibrate(fieldType, values[0], values[0]), timestampNanos));
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to create reading: " + e.getMessage());
+                }
             }
-        });
+        }.start();
     }
 
-    private void getHeading(final CallbackContext callbackContext) {
+    private void getHeading(final CallbackContext callbackContext, long maxAgeMs) {
         if (magnetometer == null) {
             sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
             return;
         }
 
-        cordova.getThreadPool().execute(new Runnable() {
+        final int fieldType = getFieldSensorType();
+        new OneShotRequest(callbackContext, "Timeout waiting for heading", maxAgeMs,
+                fieldType, Sensor.TYPE_ACCELEROMETER) {
             @Override
-            public void run() {
-                final boolean[] dataReceived = {false};
-                final float[] magValues = new float[3];
-                final float[] accelValues = new float[3];
-                final boolean[] hasMag = {false};
-                final boolean[] hasAccel = {false};
-
-                Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            void onSamples(float[][] values, long timestampNanos) {
+                try {
+                    callbackContext.success(calculateHeading(calibrate(fieldType, values[0], values[0]), values[1],
+                            timestampNanos));
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to calculate heading: " + e.getMessage());
+                }
+            }
+        }.start();
+    }
 
-                SensorEventListener listener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        if (dataReceived[0]) return;
-
-                        if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                            System.arraycopy(event.values, 0, magValues, 0, 3);
-                            hasMag[0] = true;
-                        } else if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                            System.arraycopy(event.values, 0, accelValues, 0, 3);
-                            hasAccel[0] = true;
-                        }
+    /**
+     * Start a watch, replacing any watch of the same type with the same ID; an ID in use by a watch
+     * of another type is rejected. Watches share one hardware registration per sensor through the
+     * hub, which decimates the stream to each watch's own rate.
+     */
+    private void startWatch(final Watch watch) {
+        if (magnetometer == null) {
+            sendError(watch.callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
+            return;
+        }
 
-                        if (hasMag[0] && hasAccel[0]) {
-                            dataReceived[0] = true;
-                            sensorManager.unregisterListener(this);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Watch previous = watches.get(watch.id);
+                if (previous != null && previous.type != watch.type) {
+                    watch.callbackContext.error("Watch ID '" + watch.id + "' is in use by a "
+                            + PluginMetrics.getWatchName(previous.type) + " watch");
+                    return;
+                }
+                watches.put(watch.id, watch);
+                if (previous != null) {
+                    previous.stop();
+                }
+                watch.subscribe();
 
-                            try {
-                                JSONObject heading = calculateHeading(magValues, accelValues);
-                                callbackContext.success(heading);
-                            } catch (JSONException e) {
-                                callbackContext.error("Failed to calculate heading: " + e.getMessage());
-                            }
-                        }
-                    }
+                PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+                result.setKeepCallback(true);
+                watch.callbackContext.sendPluginResult(result);
+            }
+        });
+    }
 
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-                        if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                            currentAccuracy = accuracy;
-                            calibrationNeeded = accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
-                        }
+    /**
+     * Stop the watch with the given ID, or every watch of the given type when id is empty
+     */
+    private void stopWatch(final CallbackContext callbackContext, final String id, final int type) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Iterator<Watch> iterator = watches.values().iterator();
+                while (iterator.hasNext()) {
+                    Watch watch = iterator.next();
+                    if (watch.type == type && (id.isEmpty() || id.equals(watch.id))) {
+                        watch.stop();
+                        iterator.remove();
                     }
-                };
-
-                sensorManager.registerListener(listener, magnetometer, SensorManager.SENSOR_DELAY_UI);
-                if (accelerometer != null) {
-                    sensorManager.registerListener(listener, accelerometer, SensorManager.SENSOR_DELAY_UI);
                 }
-
-                // Timeout after 1 second
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!dataReceived[0]) {
-                            dataReceived[0] = true;
-                            callbackContext.error("Timeout waiting for heading");
-                        }
-                    }
-                }, 1000);
+                callbackContext.success();
             }
         });
     }
 
-    private void watchReadings(CallbackContext callbackContext, final int frequency) {
-        if (magnetometer == null) {
-            sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
-            return;
-        }
+    private String getBackgroundPolicy(JSONObject options) {
+        String policy = options != null ? options.optString("backgroundPolicy", BACKGROUND_PAUSE) : BACKGROUND_PAUSE;
+        return BACKGROUND_REDUCE.equals(policy) || BACKGROUND_CONTINUE.equals(policy) ? policy : BACKGROUND_PAUSE;
+    }
 
-        // Stop existing watch
-        if (watchCallbackContext != null) {
-            sensorManager.unregisterListener(this, magnetometer);
-        }
+    private int getBackgroundFrequency(JSONObject options) {
+        return options != null
+                ? options.optInt("backgroundFrequency", DEFAULT_BACKGROUND_FREQUENCY_MS)
+                : DEFAULT_BACKGROUND_FREQUENCY_MS;
+    }
 
-        watchCallbackContext = callbackContext;
+    /**
+     * ID of a watch from its options, defaulting to the watch type so callers that start a single
+     * watch of each type keep replacing it
+     */
+    private static String getWatchId(JSONObject options, int type) {
+        String id = options != null ? options.optString("id", "") : "";
+        return id.isEmpty() ? PluginMetrics.getWatchName(type) : id;
+    }
 
-        int sensorDelay = getSensorDelay(frequency);
-        sensorManager.registerListener(this, magnetometer, sensorDelay);
+    /**
+     * Heading source named in watch options, accelMag by default
+     */
+    private static String getHeadingSource(JSONObject options) {
+        return options != null ? options.optString("source", SOURCE_ACCEL_MAG) : SOURCE_ACCEL_MAG;
+    }
 
-        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-        result.setKeepCallback(true);
-        callbackContext.sendPluginResult(result);
+    private static boolean isHeadingSource(String source) {
+        return SOURCE_ACCEL_MAG.equals(source) || SOURCE_ROTATION_VECTOR.equals(source)
+                || SOURCE_GEOMAGNETIC_ROTATION_VECTOR.equals(source);
     }
 
-    private void stopWatch(CallbackContext callbackContext) {
-        if (watchCallbackContext != null) {
-            sensorManager.unregisterListener(this, magnetometer);
-            watchCallbackContext = null;
+    /**
+     * Pick the sensor driving the heading watch, falling back when the requested one is missing:
+     * rotation vector, then geomagnetic rotation vector, then accelerometer + magnetometer.
+     * @return the fused sensor type, or TYPE_MAGNETIC_FIELD for the accelerometer + magnetometer path
+     */
+    private int resolveHeadingSensorType(String source) {
+        boolean accelMagAvailable = accelerometer != null && magnetometer != null;
+
+        if (SOURCE_ACCEL_MAG.equals(source) && accelMagAvailable) {
+            return Sensor.TYPE_MAGNETIC_FIELD;
+        }
+        if (!SOURCE_GEOMAGNETIC_ROTATION_VECTOR.equals(source) && rotationVector != null) {
+            return Sensor.TYPE_ROTATION_VECTOR;
+        }
+        if (geomagneticRotationVector != null) {
+            return Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR;
         }
-        callbackContext.success();
+        if (rotationVector != null && !accelMagAvailable) {
+            return Sensor.TYPE_ROTATION_VECTOR;
+        }
+        return Sensor.TYPE_MAGNETIC_FIELD;
     }
 
-    private void watchHeading(CallbackContext callbackContext, final int frequency) {
-        if (magnetometer == null) {
-            sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
-            return;
+    /**
+     * One stream of samples to a JS callback, with its own rate, format, flow control and background
+     * policy. Only touched on the sensor thread.
+     */
+    private abstract class Watch implements SensorHub.Subscriber {
+        final String id;
+        /** PluginMetrics.WATCH_* */
+        final int type;
+        final CallbackContext callbackContext;
+        final int periodUs;
+        final String backgroundPolicy;
+        final int backgroundPeriodUs;
+        // Flow control, null when the watch sends every sample immediately
+        final DeliveryQueue queue;
+        final BinarySampleWriter binaryWriter;
+        // Magnetometer stream the watch is subscribed to, per getFieldSensorType() at subscribe time
+        int fieldType = Sensor.TYPE_MAGNETIC_FIELD;
+        private final float[] queuedValues = new float[3];
+
+        Watch(String id, int type, CallbackContext callbackContext, int frequencyMs, JSONObject options,
+              DeliveryQueue queue, int maxRecords) {
+            this.id = id;
+            this.type = type;
+            this.callbackContext = callbackContext;
+            this.periodUs = getSamplingPeriodUs(frequencyMs);
+            this.backgroundPolicy = getBackgroundPolicy(options);
+            this.backgroundPeriodUs = getSamplingPeriodUs(getBackgroundFrequency(options));
+            this.queue = queue;
+            boolean binary = options != null && FORMAT_BINARY.equals(options.optString("format"));
+            this.binaryWriter = binary ? new BinarySampleWriter(maxRecords) : null;
         }
 
-        // Stop existing watch
-        if (watchHeadingCallbackContext != null) {
-            stopHeadingSensors();
-        }
+        /** Sensor reported by getWatchInfo */
+        abstract int getSensorType();
 
-        watchHeadingCallbackContext = callbackContext;
+        /** Subscribe the watch's sensors at the given period */
+        abstract void register(int samplingPeriodUs);
 
-        int sensorDelay = getSensorDelay(frequency);
-        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        /** Payload of one sample held back by flow control */
+        abstract JSONObject createQueuedObject(float[] values, long timestamp, long timestampNanos) throws JSONException;
 
-        sensorManager.registerListener(headingListener, magnetometer, sensorDelay);
-        if (accelerometer != null) {
-            sensorManager.registerListener(headingListener, accelerometer, sensorDelay);
+        void unregister() {
+            sensorHub.unsubscribe(this);
         }
 
-        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-        result.setKeepCallback(true);
-        callbackContext.sendPluginResult(result);
-    }
+        /**
+         * (Re-)subscribe at the watch's own rate, or per its background policy while paused
+         */
+        void subscribe() {
+            fieldType = getFieldSensorType();
+            if (paused && BACKGROUND_PAUSE.equals(backgroundPolicy)) {
+                unregister();
+            } else if (paused && BACKGROUND_REDUCE.equals(backgroundPolicy)) {
+                register(Math.max(periodUs, backgroundPeriodUs));
+            } else {
+                register(periodUs);
+            }
+        }
 
-    private void stopWatchHeading(CallbackContext callbackContext) {
-        stopHeadingSensors();
-        watchHeadingCallbackContext = null;
-        callbackContext.success();
-    }
+        boolean followsLifecycle() {
+            return !BACKGROUND_CONTINUE.equals(backgroundPolicy);
+        }
 
-    private void stopHeadingSensors() {
-        sensorManager.unregisterListener(headingListener);
-    }
+        void onPause() {
+            subscribe();
+        }
 
-    private final float[] headingMagValues = new float[3];
-    private final float[] headingAccelValues = new float[3];
-    private boolean headingHasMag = false;
-    private boolean headingHasAccel = false;
+        void onResume() {
+            subscribe();
+            seedFromCache();
+        }
 
-    private SensorEventListener headingListener = new SensorEventListener() {
-        @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (watchHeadingCallbackContext == null) return;
+        /**
+         * Hand the watch a recent cached sample after resume, so it updates right away
+         * instead of waiting for the re-registered sensors
+         */
+        void seedFromCache() {
+        }
+
+        void stop() {
+            unregister();
+        }
 
-            if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                System.arraycopy(event.values, 0, headingMagValues, 0, 3);
-                headingHasMag = true;
-            } else if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                System.arraycopy(event.values, 0, headingAccelValues, 0, 3);
-                headingHasAccel = true;
+        /**
+         * JS consumed count payloads: grant the credits and send what was held back
+         */
+        void acknowledge(int count) {
+            if (queue != null) {
+                queue.acknowledge(count);
+                drain();
             }
+        }
 
-            if (headingHasMag && headingHasAccel) {
+        /**
+         * Send held-back samples while there is credit: the whole queue as one payload for the
+         * batch policy, otherwise one payload per sample, oldest first
+         */
+        void drain() {
+            while (queue.hasPending() && queue.canSend()) {
+                long startNanos = System.nanoTime();
+                SampleRing pending = queue.getPending();
+                int samples = queue.isBatch() ? pending.size() : 1;
+                long oldestTimestampNanos = pending.peekTimestamp();
+
+                PluginResult result;
                 try {
-                    JSONObject heading = calculateHeading(headingMagValues, headingAccelValues);
-                    PluginResult result = new PluginResult(PluginResult.Status.OK, heading);
-                    result.setKeepCallback(true);
-                    watchHeadingCallbackContext.sendPluginResult(result);
+                    if (queue.isBatch()) {
+                        result = binaryWriter != null
+                                ? new PluginResult(PluginResult.Status.OK, pending.drainBinary(binaryWriter, clock))
+                                : new PluginResult(PluginResult.Status.OK, pending.drainPacked(clock));
+                    } else {
+                        long timestampNanos = pending.poll(queuedValues);
+                        long timestamp = clock.toEpochMillis(timestampNanos);
+                        result = binaryWriter != null
+                                ? new PluginResult(PluginResult.Status.OK,
+                                        binaryWriter.encode(queuedValues[0], queuedValues[1], queuedValues[2], timestamp,
+                                                timestampNanos))
+                                : new PluginResult(PluginResult.Status.OK,
+                                        createQueuedObject(queuedValues, timestamp, timestampNanos));
+                    }
                 } catch (JSONException e) {
-                    Log.e(LOG_TAG, "Error calculating heading: " + e.getMessage());
+                    Log.e(LOG_TAG, "Error sending queued samples: " + e.getMessage());
+                    return;
                 }
+                send(result, samples, oldestTimestampNanos, startNanos);
             }
         }
 
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-            if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                currentAccuracy = accuracy;
-                calibrationNeeded = accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
+        /**
+         * Hold a sample back while JS is behind.
+         * @return false if the watch may send right away
+         */
+        boolean holdBack(float a, float b, float c, long timestampNanos) {
+            if (queue == null || queue.canSend()) {
+                return false;
             }
+            if (queue.enqueue(a, b, c, timestampNanos)) {
+                metrics.recordDropped(type);
+            }
+            return true;
         }
-    };
-
-    private void getMagnetometerInfo(final CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    JSONObject info = new JSONObject();
-                    info.put("isAvailable", magnetometer != null);
-                    info.put("accuracy", currentAccuracy);
-                    info.put("calibrationNeeded", calibrationNeeded);
-                    info.put("platform", "android");
-
-                    if (magnetometer != null) {
-                        final boolean[] dataReceived = {false};
-                        final JSONObject[] readingObj = {null};
-
-                        SensorEventListener listener = new SensorEventListener() {
-                            @Override
-                            public void onSensorChanged(SensorEvent event) {
-                                if (!dataReceived[0] && event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                                    dataReceived[0] = true;
-                                    sensorManager.unregisterListener(this);
-                                    try {
-                                        readingObj[0] = createReadingObject(event.values);
-                                    } catch (JSONException e) {
-                                        Log.e(LOG_TAG, "Error creating reading: " + e.getMessage());
-                                    }
-                                    synchronized (readingObj) {
-                                        readingObj.notify();
-                                    }
-                                }
-                            }
-
-                            @Override
-                            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-                        };
-
-                        sensorManager.registerListener(listener, magnetometer, SensorManager.SENSOR_DELAY_UI);
-
-                        synchronized (readingObj) {
-                            try {
-                                readingObj.wait(500);
-                            } catch (InterruptedException e) {
-                                // Ignored
-                            }
-                        }
 
-                        if (readingObj[0] != null) {
-                            info.put("reading", readingObj[0]);
-                        }
-                    }
+        /**
+         * Send a payload, recording its serialization time and the latency from the
+         * oldest sample's sensor timestamp to the bridge
+         */
+        void send(PluginResult result, int samples, long oldestTimestampNanos, long startNanos) {
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+            if (queue != null) {
+                queue.onSent();
+            }
+            metrics.serializationTime.record(System.nanoTime() - startNanos);
+            metrics.recordDelivered(type, samples, SystemClock.elapsedRealtimeNanos() - oldestTimestampNanos);
+        }
 
-                    callbackContext.success(info);
-                } catch (JSONException e) {
-                    callbackContext.error("Failed to get magnetometer info: " + e.getMessage());
-                }
+        /**
+         * Requested, registered and measured rates, and the flow control state
+         */
+        JSONObject describe() throws JSONException {
+            JSONObject info = sensorHub.describe(getSensorType(), this);
+            if (info == null) {
+                // Unsubscribed while the app is in the background
+                info = new JSONObject();
             }
-        });
+            info.put("type", PluginMetrics.getWatchName(type));
+            if (queue != null) {
+                info.put("inFlight", queue.getInFlight());
+                info.put("pending", queue.getPending().size());
+                info.put("dropped", queue.getDropped());
+            }
+            return info;
+        }
     }
 
-    private void getAccuracy(CallbackContext callbackContext) {
-        callbackContext.success(currentAccuracy);
-    }
+    private class ReadingsWatch extends Watch implements Runnable {
+        // Raw TYPE_MAGNETIC_FIELD_UNCALIBRATED values with the bias tracker instead of the calibration
+        private final boolean uncalibrated;
+        private final BiasTracker biasTracker;
+        private final int maxReportLatencyUs;
+        // Batched mode, null when readings are sent one by one
+        private final SampleRing batch;
+        private final int batchLatencyMs;
+        private long batchOldestNanos;
+
+        private final float[] correctedValues = new float[3];
+        private final float[] uncalibratedValues = new float[3];
+        private final float[] systemBias = new float[3];
+        private final float[] trackedBias = new float[3];
+
+        ReadingsWatch(String id, CallbackContext callbackContext, int frequencyMs, JSONObject options, DeliveryQueue queue) {
+            super(id, PluginMetrics.WATCH_READINGS, callbackContext, frequencyMs, options, queue,
+                    Math.max(options != null ? options.optInt("batchSize", 0) : 0,
+                            queue != null && queue.isBatch() ? queue.capacity() : 1));
+            int batchSize = options != null ? options.optInt("batchSize", 0) : 0;
+            this.uncalibrated = options != null && options.optBoolean("uncalibrated", false);
+            this.biasTracker = createBiasTracker(
+                    options != null ? options.optString("biasTracker", BIAS_TRACKER_NONE) : BIAS_TRACKER_NONE);
+            if (batchSize > 0) {
+                // Batched mode: let the sensor hub queue events in its hardware FIFO
+                // and deliver them to JS as one packed array per flush
+                this.batch = new SampleRing(batchSize);
+                this.batchLatencyMs = Math.max(0, options.optInt("maxLatencyMs", 0));
+            } else {
+                this.batch = null;
+                this.batchLatencyMs = 0;
+            }
+            this.maxReportLatencyUs = batchLatencyMs * 1000;
+        }
 
-    private void isCalibrationNeeded(CallbackContext callbackContext) {
-        callbackContext.success(calibrationNeeded ? 1 : 0);
-    }
+        @Override
+        int getSensorType() {
+            return uncalibrated ? Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED : fieldType;
+        }
 
-    private void getFieldStrength(final CallbackContext callbackContext) {
-        if (magnetometer == null) {
-            sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
-            return;
+        @Override
+        void register(int samplingPeriodUs) {
+            sensorHub.subscribe(getSensorType(), this, samplingPeriodUs, maxReportLatencyUs);
         }
 
-        cordova.getThreadPool().execute(new Runnable() {
-            @Override
-            public void run() {
-                final boolean[] dataReceived = {false};
+        @Override
+        JSONObject createQueuedObject(float[] values, long timestamp, long timestampNanos) throws JSONException {
+            return JsonSampleWriter.createReading(values, timestamp, timestampNanos);
+        }
 
-                SensorEventListener listener = new SensorEventListener() {
-                    @Override
-                    public void onSensorChanged(SensorEvent event) {
-                        if (!dataReceived[0] && event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                            dataReceived[0] = true;
-                            sensorManager.unregisterListener(this);
+        @Override
+        void onPause() {
+            flushBatch(false);
+            super.onPause();
+        }
 
-                            float x = event.values[0];
-                            float y = event.values[1];
-                            float z = event.values[2];
-                            double magnitude = Math.sqrt(x * x + y * y + z * z);
+        @Override
+        void seedFromCache() {
+            int sensorType = getSensorType();
+            float[] values = new float[sensorType == Sensor.TYPE_MAGNETIC_FIELD ? 3 : 6];
+            long timestamp = sensorHub.copyLatest(sensorType, RESUME_SEED_MAX_AGE_MS, values);
+            if (timestamp != 0) {
+                onSample(sensorType, values, timestamp);
+            }
+        }
 
-                            callbackContext.success((int) Math.round(magnitude));
-                        }
-                    }
+        @Override
+        void stop() {
+            super.stop();
+            // The final flush ignores flow control
+            flushBatch(true);
+            handler.removeCallbacks(this);
+        }
 
-                    @Override
-                    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-                };
+        @Override
+        void drain() {
+            if (batch != null) {
+                flushBatch(false);
+            } else {
+                super.drain();
+            }
+        }
 
-                sensorManager.registerListener(listener, magnetometer, SensorManager.SENSOR_DELAY_UI);
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            if (uncalibrated) {
+                values = removeBias(values, timestampNanos);
+            } else {
+                values = calibrate(sensorType, values, correctedValues);
+            }
+            if (batch != null) {
+                addToBatch(values, timestampNanos);
+                return;
+            }
+            if (holdBack(values[0], values[1], values[2], timestampNanos)) {
+                return;
+            }
 
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!dataReceived[0]) {
-                            dataReceived[0] = true;
-                            callbackContext.error("Timeout waiting for field strength");
-                        }
+            long startNanos = System.nanoTime();
+            PluginResult result;
+            if (binaryWriter != null) {
+                byte[] record = binaryWriter.encode(values[0], values[1], values[2], clock.toEpochMillis(timestampNanos),
+                        timestampNanos);
+                result = new PluginResult(PluginResult.Status.OK, record);
+            } else {
+                try {
+                    JSONObject reading = createReadingObject(values, timestampNanos);
+                    if (uncalibrated) {
+                        JsonSampleWriter.addBias(reading, uncalibratedValues, systemBias, trackedBias);
                     }
-                }, 1000);
+                    result = new PluginResult(PluginResult.Status.OK, reading);
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, "Error sending reading: " + e.getMessage());
+                    return;
+                }
             }
-        });
-    }
+            send(result, 1, timestampNanos, startNanos);
+        }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (watchCallbackContext != null && event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            try {
-                JSONObject reading = createReadingObject(event.values);
-                PluginResult result = new PluginResult(PluginResult.Status.OK, reading);
-                result.setKeepCallback(true);
-                watchCallbackContext.sendPluginResult(result);
-            } catch (JSONException e) {
-                Log.e(LOG_TAG, "Error sending reading: " + e.getMessage());
-            }
+        /** Batch latency timeout */
+        @Override
+        public void run() {
+            flushBatch(false);
         }
-    }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            currentAccuracy = accuracy;
-            calibrationNeeded = accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
+        /**
+         * Subtract the bias tracker's estimate from a TYPE_MAGNETIC_FIELD_UNCALIBRATED sample,
+         * keeping the raw values and the system's bias estimate for the payload
+         */
+        private float[] removeBias(float[] values, long timestampNanos) {
+            for (int i = 0; i < 3; i++) {
+                uncalibratedValues[i] = values[i];
+                systemBias[i] = values.length >= 6 ? values[3 + i] : 0;
+            }
+            if (biasTracker != null) {
+                biasTracker.update(values, timestampNanos);
+                biasTracker.getBias(trackedBias);
+            } else {
+                trackedBias[0] = 0;
+                trackedBias[1] = 0;
+                trackedBias[2] = 0;
+            }
+            for (int i = 0; i < 3; i++) {
+                correctedValues[i] = uncalibratedValues[i] - trackedBias[i];
+            }
+            return correctedValues;
         }
-    }
 
-    private JSONObject createReadingObject(float[] values) throws JSONException {
-        float x = values[0];
-        float y = values[1];
-        float z = values[2];
-        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        private void addToBatch(float[] values, long timestampNanos) {
+            boolean wasEmpty = batch.isEmpty();
+            boolean overwrite = batch.size() == batch.capacity();
+            if (overwrite) {
+                // Only happens while flow control holds back a full batch: the oldest sample is overwritten
+                metrics.recordDropped(type);
+            }
+            boolean full = batch.add(values[0], values[1], values[2], timestampNanos);
+            if (wasEmpty || overwrite) {
+                batchOldestNanos = batch.peekTimestamp();
+            }
+
+            if (full) {
+                flushBatch(false);
+            } else if (wasEmpty && batchLatencyMs > 0) {
+                // Bound how long the first sample of a batch can wait for delivery
+                handler.postDelayed(this, batchLatencyMs);
+            }
+        }
 
-        JSONObject reading = new JSONObject();
-        reading.put("x", x);
-        reading.put("y", y);
-        reading.put("z", z);
-        reading.put("magnitude", magnitude);
-        reading.put("timestamp", System.currentTimeMillis());
+        private void flushBatch(boolean force) {
+            handler.removeCallbacks(this);
+            if (batch == null || batch.isEmpty()) {
+                return;
+            }
+            if (!force && queue != null && !queue.canSend()) {
+                // Keep collecting; the batch goes out when JS acknowledges a payload
+                return;
+            }
 
-        return reading;
+            long startNanos = System.nanoTime();
+            int samples = batch.size();
+            PluginResult result;
+            if (binaryWriter != null) {
+                result = new PluginResult(PluginResult.Status.OK, batch.drainBinary(binaryWriter, clock));
+            } else {
+                try {
+                    result = new PluginResult(PluginResult.Status.OK, batch.drainPacked(clock));
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, "Error sending reading batch: " + e.getMessage());
+                    return;
+                }
+            }
+            send(result, samples, batchOldestNanos, startNanos);
+        }
     }
 
-    private JSONObject calculateHeading(float[] magValues, float[] accelValues) throws JSONException {
-        float[] R = new float[9];
-        float[] I = new float[9];
+    private class HeadingWatch extends Watch {
+        private final int sensorType;
+        private final HeadingFilter filter;
+        private final float[] magValues = new float[3];
+        private final float[] accelValues = new float[3];
+        private boolean hasAccel = false;
+
+        HeadingWatch(String id, CallbackContext callbackContext, int frequencyMs, float deadband, JSONObject options,
+                     DeliveryQueue queue) {
+            super(id, PluginMetrics.WATCH_HEADING, callbackContext, frequencyMs, options, queue,
+                    queue != null && queue.isBatch() ? queue.capacity() : 1);
+            this.sensorType = resolveHeadingSensorType(getHeadingSource(options));
+            this.filter = new HeadingFilter(deadband,
+                    options != null ? options.optLong("minIntervalMs", 0) : 0,
+                    options != null ? (float) options.optDouble("smoothing", 0) : 0);
+        }
 
-        boolean success = SensorManager.getRotationMatrix(R, I, accelValues, magValues);
+        @Override
+        int getSensorType() {
+            return sensorType == Sensor.TYPE_MAGNETIC_FIELD ? fieldType : sensorType;
+        }
 
-        float azimuth = 0;
-        if (success) {
-            float[] orientation = new float[3];
-            SensorManager.getOrientation(R, orientation);
-            azimuth = (float) Math.toDegrees(orientation[0]);
-            if (azimuth < 0) {
-                azimuth += 360;
+        @Override
+        void register(int samplingPeriodUs) {
+            if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                sensorHub.subscribe(fieldType, this, samplingPeriodUs, 0);
+                sensorHub.subscribe(Sensor.TYPE_ACCELEROMETER, this, samplingPeriodUs, 0);
+            } else {
+                sensorHub.subscribe(sensorType, this, samplingPeriodUs, 0);
             }
         }
 
-        JSONObject heading = new JSONObject();
-        heading.put("magneticHeading", azimuth);
-        heading.put("trueHeading", azimuth); // True heading requires GPS, using magnetic as fallback
-        heading.put("headingAccuracy", -1); // Not available on Android
-        heading.put("timestamp", System.currentTimeMillis());
+        @Override
+        void unregister() {
+            super.unregister();
+            hasAccel = false;
+        }
 
-        return heading;
-    }
+        @Override
+        void onResume() {
+            // The first heading after resume goes out even inside the deadband or minimum interval
+            // of the last one sent before the pause
+            filter.reset();
+            super.onResume();
+        }
 
-    private int getSensorDelay(int frequencyMs) {
-        if (frequencyMs <= 20) {
-            return SensorManager.SENSOR_DELAY_FASTEST;
-        } else if (frequencyMs <= 60) {
-            return SensorManager.SENSOR_DELAY_GAME;
-        } else if (frequencyMs <= 200) {
-            return SensorManager.SENSOR_DELAY_UI;
-        } else {
-            return SensorManager.SENSOR_DELAY_NORMAL;
+        @Override
+        JSONObject createQueuedObject(float[] values, long timestamp, long timestampNanos) throws JSONException {
+            return JsonSampleWriter.createHeading(values[0], values[1], timestamp, timestampNanos);
         }
-    }
 
-    /**
-     * Send a structured error with code and message
-     */
-    private void sendError(CallbackContext callbackContext, int code, String message) {
-        try {
-            JSONObject error = new JSONObject();
-            error.put("code", code);
-            error.put("message", message);
-            callbackContext.error(error);
+        @Override
+        void seedFromCache() {
+            if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                float[] accel = new float[3];
+                float[] mag = new float[3];
+                long accelTimestamp = sensorHub.copyLatest(Sensor.TYPE_ACCELEROMETER, RESUME_SEED_MAX_AGE_MS, accel);
+                long magTimestamp = sensorHub.copyLatest(fieldType, RESUME_SEED_MAX_AGE_MS, mag);
+                if (accelTimestamp != 0 && magTimestamp != 0) {
+                    onSample(Sensor.TYPE_ACCELEROMETER, accel, accelTimestamp);
+                    onSample(fieldType, mag, magTimestamp);
+                }
+            } else {
+                float[] rotation = new float[4];
+                long timestamp = sensorHub.copyLatest(sensorType, RESUME_SEED_MAX_AGE_MS, rotation);
+                if (timestamp != 0) {
+                    onSample(sensorType, rotation, timestamp);
+                }
+            }
+        }
+
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            float azimuth;
+            long computeStartNanos = System.nanoTime();
+            if (sensorType == Sensor.TYPE_ROTATION_VECTOR || sensorType == Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR) {
+                azimuth = HeadingMath.calculateAzimuth(values, rotationMatrix, orientationValues);
+            } else {
+                // Headings are emitted on magnetometer samples only, so the watch runs at its own
+                // period; accelerometer samples just update the gravity vector
+                if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                    System.arraycopy(values, 0, accelValues, 0, 3);
+                    hasAccel = true;
+                    return;
+                }
+                if (!hasAccel) return;
+                System.arraycopy(calibrate(sensorType, values, magValues), 0, magValues, 0, 3);
+                azimuth = HeadingMath.calculateAzimuth(magValues, accelValues, rotationMatrix, orientationValues);
+            }
+            metrics.headingTime.record(System.nanoTime() - computeStartNanos);
+
+            // Headings that did not move past the deadband never cross the bridge
+            if (!filter.accept(azimuth, timestampNanos)) {
+                metrics.recordFiltered(type);
+                return;
+            }
+            azimuth = filter.getHeading();
+
+            long timestamp = clock.toEpochMillis(timestampNanos);
+            float trueHeading = declination.toTrueHeading(azimuth, timestamp);
+
+            if (holdBack(azimuth, trueHeading, -1, timestampNanos)) {
+                return;
+            }
+
+            long startNanos = System.nanoTime();
+            PluginResult result;
+            if (binaryWriter != null) {
+                byte[] record = binaryWriter.encode(azimuth, trueHeading, -1, timestamp, timestampNanos);
+                result = new PluginResult(PluginResult.Status.OK, record);
+            } else {
+                try {
+                    result = new PluginResult(PluginResult.Status.OK,
+                            JsonSampleWriter.createHeading(azimuth, trueHeading, timestamp, timestampNanos));
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, "Error calculating heading: " + e.getMessage());
+                    return;
+                }
+            }
+            send(result, 1, timestampNanos, startNanos);
+        }
+    }
+
+    /**
+     * Rolling statistics of the magnetometer computed natively; JS receives periodic summaries and
+     * anomaly events instead of the samples themselves
+     */
+    private class AnalyticsWatch extends Watch {
+        private final StreamAnalytics analytics;
+        private final long summaryIntervalNanos;
+        private long nextSummaryNanos = 0;
+        private final float[] values = new float[3];
+
+        AnalyticsWatch(String id, CallbackContext callbackContext, JSONObject options) {
+            super(id, PluginMetrics.WATCH_ANALYTICS, callbackContext, getAnalyticsFrequency(options), options, null, 1);
+            int frequencyMs = getAnalyticsFrequency(options);
+            int windowMs = DEFAULT_ANALYTICS_WINDOW_MS;
+            int summaryIntervalMs = DEFAULT_ANALYTICS_SUMMARY_INTERVAL_MS;
+            double minMagnitude = Double.NaN;
+            double maxMagnitude = Double.NaN;
+            double hysteresis = DEFAULT_ANALYTICS_HYSTERESIS_UT;
+            double zScore = 0;
+            if (options != null) {
+                windowMs = options.optInt("windowMs", windowMs);
+                summaryIntervalMs = options.optInt("summaryIntervalMs", summaryIntervalMs);
+                minMagnitude = options.optDouble("minMagnitude", Double.NaN);
+                maxMagnitude = options.optDouble("maxMagnitude", Double.NaN);
+                hysteresis = options.optDouble("hysteresis", hysteresis);
+                zScore = options.optDouble("zScore", 0);
+            }
+            this.analytics = new StreamAnalytics(Math.max(2, windowMs / frequencyMs),
+                    minMagnitude, maxMagnitude, hysteresis, zScore);
+            this.summaryIntervalNanos = Math.max(0, summaryIntervalMs) * 1000000L;
+        }
+
+        @Override
+        int getSensorType() {
+            return fieldType;
+        }
+
+        @Override
+        void register(int samplingPeriodUs) {
+            sensorHub.subscribe(fieldType, this, samplingPeriodUs, 0);
+        }
+
+        @Override
+        JSONObject createQueuedObject(float[] values, long timestamp, long timestampNanos) {
+            // Analytics payloads are never queued
+            return null;
+        }
+
+        @Override
+        public void onSample(int sensorType, float[] sample, long timestampNanos) {
+            float[] corrected = calibrate(sensorType, sample, values);
+            int events = analytics.update(corrected[0], corrected[1], corrected[2]);
+            long timestamp = clock.toEpochMillis(timestampNanos);
+            try {
+                if (events != 0) {
+                    for (int event : StreamAnalytics.EVENTS) {
+                        if ((events & event) != 0) {
+                            send(new PluginResult(PluginResult.Status.OK, analytics.eventToJSON(event, timestamp, timestampNanos)),
+                                    1, timestampNanos, System.nanoTime());
+                        }
+                    }
+                }
+                if (summaryIntervalNanos > 0 && timestampNanos >= nextSummaryNanos) {
+                    if (nextSummaryNanos != 0) {
+                        send(new PluginResult(PluginResult.Status.OK, analytics.summaryToJSON(timestamp, timestampNanos)),
+                                1, timestampNanos, System.nanoTime());
+                    }
+                    nextSummaryNanos = timestampNanos + summaryIntervalNanos;
+                }
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Error sending analytics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fused record per magnetometer sample with only the fields in the watch's mask computed.
+     * Heading and attitude come from the accelerometer or a rotation vector, whichever the
+     * source option resolves to; the latest sample of that sensor is paired with each field sample.
+     */
+    private class MotionWatch extends Watch {
+        private final int fields;
+        // TYPE_MAGNETIC_FIELD for accelerometer + magnetometer, 0 when no orientation is needed
+        private final int orientationSensorType;
+        private final float[] field = new float[3];
+        private final float[] orientationInput = new float[4];
+        private final float[] motionRotationMatrix = new float[9];
+        private final float[] motionOrientation = new float[3];
+        private boolean hasOrientationInput = false;
+
+        MotionWatch(String id, CallbackContext callbackContext, int frequencyMs, JSONObject options) {
+            super(id, PluginMetrics.WATCH_MOTION, callbackContext, frequencyMs, options, null, 1);
+            this.fields = MotionFields.parse(options != null ? options.optJSONArray("fields") : null);
+            this.orientationSensorType = MotionFields.needsOrientation(fields)
+                    ? resolveHeadingSensorType(getHeadingSource(options))
+                    : 0;
+        }
+
+        @Override
+        int getSensorType() {
+            return fieldType;
+        }
+
+        @Override
+        void register(int samplingPeriodUs) {
+            sensorHub.subscribe(fieldType, this, samplingPeriodUs, 0);
+            if (orientationSensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                sensorHub.subscribe(Sensor.TYPE_ACCELEROMETER, this, samplingPeriodUs, 0);
+            } else if (orientationSensorType != 0) {
+                sensorHub.subscribe(orientationSensorType, this, samplingPeriodUs, 0);
+            }
+        }
+
+        @Override
+        void unregister() {
+            super.unregister();
+            hasOrientationInput = false;
+        }
+
+        @Override
+        JSONObject createQueuedObject(float[] values, long timestamp, long timestampNanos) {
+            // Motion records are never queued
+            return null;
+        }
+
+        @Override
+        void seedFromCache() {
+            if (orientationSensorType != 0) {
+                int inputType = orientationSensorType == Sensor.TYPE_MAGNETIC_FIELD
+                        ? Sensor.TYPE_ACCELEROMETER : orientationSensorType;
+                float[] input = new float[4];
+                long inputTimestamp = sensorHub.copyLatest(inputType, RESUME_SEED_MAX_AGE_MS, input);
+                if (inputTimestamp == 0) return;
+                onSample(inputType, input, inputTimestamp);
+            }
+            float[] mag = new float[3];
+            long magTimestamp = sensorHub.copyLatest(fieldType, RESUME_SEED_MAX_AGE_MS, mag);
+            if (magTimestamp != 0) {
+                onSample(fieldType, mag, magTimestamp);
+            }
+        }
+
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            if (sensorType != fieldType) {
+                System.arraycopy(values, 0, orientationInput, 0, Math.min(values.length, orientationInput.length));
+                hasOrientationInput = true;
+                return;
+            }
+            if (orientationSensorType != 0 && !hasOrientationInput) return;
+
+            long computeStartNanos = System.nanoTime();
+            float[] corrected = calibrate(sensorType, values, field);
+            float magneticHeading = 0;
+            float trueHeading = 0;
+            long timestamp = clock.toEpochMillis(timestampNanos);
+            // Null when the accelerometer gives no usable gravity vector, so the record leaves
+            // heading and attitude out instead of repeating an earlier orientation
+            float[] orientation = null;
+            if (orientationSensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                if (HeadingMath.calculateOrientation(corrected, orientationInput, motionRotationMatrix, motionOrientation)) {
+                    orientation = motionOrientation;
+                }
+            } else if (orientationSensorType != 0) {
+                HeadingMath.calculateOrientation(orientationInput, motionRotationMatrix, motionOrientation);
+                orientation = motionOrientation;
+            }
+            if (orientation != null) {
+                magneticHeading = HeadingMath.toAzimuth(orientation);
+                if ((fields & MotionFields.HEADING) != 0) {
+                    trueHeading = declination.toTrueHeading(magneticHeading, timestamp);
+                }
+            }
+            if (orientationSensorType != 0) {
+                metrics.headingTime.record(System.nanoTime() - computeStartNanos);
+            }
+
+            long startNanos = System.nanoTime();
+            try {
+                send(new PluginResult(PluginResult.Status.OK, MotionFields.toJSON(fields, corrected, magneticHeading,
+                        trueHeading, orientation, currentAccuracy, calibrationNeeded, timestamp, timestampNanos)),
+                        1, timestampNanos, startNanos);
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Error sending motion: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int getAnalyticsFrequency(JSONObject options) {
+        return options != null
+                ? Math.max(1, options.optInt("frequency", DEFAULT_ANALYTICS_FREQUENCY_MS))
+                : DEFAULT_ANALYTICS_FREQUENCY_MS;
+    }
+
+    /**
+     * Set the location used for true headings from args [latitude, longitude, altitude], or clear it
+     * when latitude is null. Resolves with the model's declination at the location.
+     */
+    private void setLocation(CallbackContext callbackContext, JSONArray args) {
+        if (args.isNull(0)) {
+            declination.clear();
+            callbackContext.success();
+            return;
+        }
+
+        double latitude = args.optDouble(0, Double.NaN);
+        double longitude = args.optDouble(1, Double.NaN);
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)
+                || Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+            callbackContext.error("Invalid location");
+            return;
+        }
+        declination.setLocation(latitude, longitude, args.optDouble(2, 0));
+        try {
+            callbackContext.success(declination.toJSON());
         } catch (JSONException e) {
-            callbackContext.error(message);
+            callbackContext.error("Failed to set location: " + e.getMessage());
+        }
+    }
+
+    private void getMagnetometerInfo(final CallbackContext callbackContext, long maxAgeMs) {
+        final JSONObject info = new JSONObject();
+        try {
+            info.put("isAvailable", magnetometer != null);
+            info.put("accuracy", currentAccuracy);
+            info.put("calibrationNeeded", calibrationNeeded);
+            info.put("platform", "android");
+        } catch (JSONException e) {
+            callbackContext.error("Failed to get magnetometer info: " + e.getMessage());
+            return;
+        }
+        if (magnetometer == null) {
+            callbackContext.success(info);
+            return;
+        }
+
+        final int fieldType = getFieldSensorType();
+        new OneShotRequest(callbackContext, null, maxAgeMs, fieldType) {
+            @Override
+            void onSamples(float[][] values, long timestampNanos) {
+                try {
+                    info.put("reading", createReadingObject(calibrate(fieldType, values[0], values[0]), timestampNanos));
+                    callbackContext.success(info);
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to get magnetometer info: " + e.getMessage());
+                }
+            }
+
+            /** The info is still useful without a reading */
+            @Override
+            void onTimeout() {
+                callbackContext.success(info);
+            }
+        }.start();
+    }
+
+    /**
+     * Report the requested, registered and measured rates of the active watches, keyed by watch ID
+     */
+    private void getWatchInfo(final CallbackContext callbackContext) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JSONObject info = new JSONObject();
+                    for (Watch watch : watches.values()) {
+                        info.put(watch.id, watch.describe());
+                    }
+                    callbackContext.success(info);
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to get watch info: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void getAccuracy(CallbackContext callbackContext) {
+        callbackContext.success(currentAccuracy);
+    }
+
+    private void isCalibrationNeeded(CallbackContext callbackContext) {
+        callbackContext.success(calibrationNeeded ? 1 : 0);
+    }
+
+    private void getFieldStrength(final CallbackContext callbackContext, long maxAgeMs) {
+        if (magnetometer == null) {
+            sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
+            return;
+        }
+
+        final int fieldType = getFieldSensorType();
+        new OneShotRequest(callbackContext, "Timeout waiting for field strength", maxAgeMs, fieldType) {
+            @Override
+            void onSamples(float[][] values, long timestampNanos) {
+                callbackContext.success((int) Math.round(
+                        JsonSampleWriter.calculateMagnitude(calibrate(fieldType, values[0], values[0]))));
+            }
+        }.start();
+    }
+
+    /**
+     * A single-sample request. Each sensor it needs is answered from the hub cache when a sample
+     * at most maxAgeMs old is there, otherwise by the sensor's in-flight SampleAcquisition, so
+     * concurrent requests share one subscription and one timeout. Runs on the sensor thread.
+     */
+    private abstract class OneShotRequest {
+        private final CallbackContext callbackContext;
+        private final String timeoutMessage;
+        private final long maxAgeMs;
+        private final int[] sensorTypes;
+        private final float[][] values;
+        private final long[] timestamps;
+        private int missing;
+        private boolean completed = false;
+
+        OneShotRequest(CallbackContext callbackContext, String timeoutMessage, long maxAgeMs, int... sensorTypes) {
+            this.callbackContext = callbackContext;
+            this.timeoutMessage = timeoutMessage;
+            this.maxAgeMs = maxAgeMs;
+            this.sensorTypes = sensorTypes;
+            this.values = new float[sensorTypes.length][3];
+            this.timestamps = new long[sensorTypes.length];
+            this.missing = sensorTypes.length;
+        }
+
+        /**
+         * Called once every sensor has a sample
+         * @param values one x/y/z sample per sensor type, in the order given to the constructor
+         * @param timestampNanos timestamp of the first sensor's sample
+         */
+        abstract void onSamples(float[][] values, long timestampNanos);
+
+        void onTimeout() {
+            callbackContext.error(timeoutMessage);
+        }
+
+        void start() {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < sensorTypes.length; i++) {
+                        long timestamp = sensorHub.copyLatest(sensorTypes[i], maxAgeMs, values[i]);
+                        if (timestamp != 0) {
+                            deliver(i, values[i], timestamp);
+                        } else {
+                            SampleAcquisition acquisition = acquisitions.get(sensorTypes[i]);
+                            if (acquisition == null) {
+                                acquisition = new SampleAcquisition(sensorTypes[i]);
+                                acquisitions.put(sensorTypes[i], acquisition);
+                                acquisition.start();
+                            }
+                            acquisition.add(OneShotRequest.this, i);
+                        }
+                    }
+                }
+            });
+        }
+
+        void deliver(int index, float[] sample, long timestampNanos) {
+            if (completed) return;
+            System.arraycopy(sample, 0, values[index], 0, 3);
+            timestamps[index] = timestampNanos;
+            if (--missing == 0) {
+                completed = true;
+                onSamples(values, timestamps[0]);
+            }
+        }
+
+        void fail() {
+            if (completed) return;
+            completed = true;
+            onTimeout();
         }
     }
 
     /**
-     * Send a structured error with code and message, keeping callback alive
+     * One subscription to a sensor on behalf of every one-shot request waiting for it.
+     * Ends with the first sample, or after ONE_SHOT_TIMEOUT_MS.
      */
-    private void sendErrorKeepCallback(CallbackContext callbackContext, int code, String message) {
+    private final class SampleAcquisition implements SensorHub.Subscriber, Runnable {
+        private final int sensorType;
+        private final List<OneShotRequest> requests = new ArrayList<OneShotRequest>();
+        private final List<Integer> indices = new ArrayList<Integer>();
+
+        SampleAcquisition(int sensorType) {
+            this.sensorType = sensorType;
+        }
+
+        void start() {
+            sensorHub.subscribe(sensorType, this, ONE_SHOT_PERIOD_US, 0);
+            handler.postDelayed(this, ONE_SHOT_TIMEOUT_MS);
+        }
+
+        void add(OneShotRequest request, int index) {
+            requests.add(request);
+            indices.add(index);
+        }
+
+        private void finish() {
+            acquisitions.remove(sensorType);
+            sensorHub.unsubscribe(this);
+            handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            finish();
+            for (int i = 0; i < requests.size(); i++) {
+                requests.get(i).deliver(indices.get(i), values, timestampNanos);
+            }
+        }
+
+        /** Timeout */
+        @Override
+        public void run() {
+            finish();
+            for (OneShotRequest request : requests) {
+                request.fail();
+            }
+        }
+    }
+
+    /**
+     * Collect raw samples at the sensor's fastest rate while the user moves the device through a
+     * figure-8, then fit, persist and apply hard-iron offsets and a soft-iron matrix.
+     * Samples come from the uncalibrated magnetometer when there is one, so the fit does not depend
+     * on the hard-iron estimate the system happened to have at the time.
+     * Progress is reported every CALIBRATION_PROGRESS_INTERVAL_MS until the result.
+     */
+    private void startCalibration(final CallbackContext callbackContext, final long durationMs) {
+        if (magnetometer == null) {
+            sendError(callbackContext, ERROR_NOT_AVAILABLE, "Magnetometer not available");
+            return;
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (calibrationCallbackContext != null) {
+                    sendError(callbackContext, ERROR_CALIBRATION_FAILED, "Calibration already in progress");
+                    return;
+                }
+
+                calibrationCallbackContext = callbackContext;
+                calibrationFitter.reset();
+                calibrationSensorType = uncalibratedMagnetometer != null
+                        ? Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED : Sensor.TYPE_MAGNETIC_FIELD;
+                sensorHub.subscribe(calibrationSensorType, calibrationSubscriber, 0, 0);
+                handler.postDelayed(calibrationProgressRunnable, CALIBRATION_PROGRESS_INTERVAL_MS);
+                handler.postDelayed(calibrationFinishRunnable, Math.max(0, durationMs));
+            }
+        });
+    }
+
+    private final SensorHub.Subscriber calibrationSubscriber = new SensorHub.Subscriber() {
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            calibrationFitter.add(values[0], values[1], values[2]);
+        }
+    };
+
+    private void sendCalibrationProgress() {
+        if (calibrationCallbackContext == null) return;
+
+        try {
+            JSONObject progress = new JSONObject();
+            progress.put("status", "progress");
+            progress.put("sampleCount", calibrationFitter.getSampleCount());
+            progress.put("coverage", calibrationFitter.getCoverage());
+            PluginResult result = new PluginResult(PluginResult.Status.OK, progress);
+            result.setKeepCallback(true);
+            calibrationCallbackContext.sendPluginResult(result);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error sending calibration progress: " + e.getMessage());
+        }
+    }
+
+    private void finishCalibration() {
+        CallbackContext callbackContext = calibrationCallbackContext;
+        cancelCalibration();
+        if (callbackContext == null) return;
+
+        MagneticCalibration result = new MagneticCalibration();
+        if (!calibrationFitter.solve(result)) {
+            sendError(callbackContext, ERROR_CALIBRATION_FAILED,
+                    "Not enough samples or orientations to fit a calibration, move the device in a figure-8");
+            return;
+        }
+        result.active = true;
+        result.raw = calibrationSensorType == Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED;
+        result.timestamp = System.currentTimeMillis();
+        calibration = result;
+        saveCalibration(result);
+        resubscribeWatches();
+
+        try {
+            JSONObject complete = result.toJSON();
+            complete.put("status", "complete");
+            callbackContext.success(complete);
+        } catch (JSONException e) {
+            callbackContext.error("Failed to create calibration: " + e.getMessage());
+        }
+    }
+
+    private void cancelCalibration() {
+        sensorHub.unsubscribe(calibrationSubscriber);
+        handler.removeCallbacks(calibrationProgressRunnable);
+        handler.removeCallbacks(calibrationFinishRunnable);
+        calibrationCallbackContext = null;
+    }
+
+    private void resetCalibration(final CallbackContext callbackContext) {
+        calibration = new MagneticCalibration();
+        getCalibrationPreferences().edit().clear().apply();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                resubscribeWatches();
+                callbackContext.success();
+            }
+        });
+    }
+
+    /**
+     * Magnetometer stream the active calibration applies to: the uncalibrated sensor for a
+     * calibration fitted on raw values, otherwise the system-corrected TYPE_MAGNETIC_FIELD
+     */
+    private int getFieldSensorType() {
+        MagneticCalibration active = calibration;
+        return active.active && active.raw ? Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED : Sensor.TYPE_MAGNETIC_FIELD;
+    }
+
+    /**
+     * Move watches whose magnetometer stream no longer matches the active calibration
+     */
+    private void resubscribeWatches() {
+        int fieldType = getFieldSensorType();
+        for (Watch watch : watches.values()) {
+            if (watch.fieldType != fieldType) {
+                watch.unregister();
+                watch.subscribe();
+            }
+        }
+    }
+
+    /**
+     * Apply the active calibration to a magnetometer sample of the stream it was fitted on.
+     * Samples of the other stream, e.g. from a watch not yet moved after a new calibration,
+     * are passed through, since the offset would be wrong for them.
+     * @return out holding the corrected sample, or values itself when no calibration applies
+     */
+    private float[] calibrate(int sensorType, float[] values, float[] out) {
+        MagneticCalibration active = calibration;
+        if (!active.active
+                || sensorType != (active.raw ? Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED : Sensor.TYPE_MAGNETIC_FIELD)) {
+            return values;
+        }
+        active.apply(values, out);
+        return out;
+    }
+
+    private SharedPreferences getCalibrationPreferences() {
+        return cordova.getActivity().getSharedPreferences(CALIBRATION_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private MagneticCalibration loadCalibration() {
+        SharedPreferences preferences = getCalibrationPreferences();
+        MagneticCalibration stored = new MagneticCalibration();
+        stored.active = preferences.getBoolean("active", false);
+        if (!stored.active) {
+            return stored;
+        }
+        for (int i = 0; i < 3; i++) {
+            stored.offset[i] = preferences.getFloat("offset" + i, 0);
+        }
+        for (int i = 0; i < 9; i++) {
+            stored.matrix[i] = preferences.getFloat("matrix" + i, stored.matrix[i]);
+        }
+        stored.softIron = preferences.getBoolean("softIron", false);
+        stored.raw = preferences.getBoolean("raw", false);
+        stored.fieldStrength = preferences.getFloat("fieldStrength", 0);
+        stored.fitError = preferences.getFloat("fitError", 0);
+        stored.sampleCount = preferences.getInt("sampleCount", 0);
+        stored.timestamp = preferences.getLong("timestamp", 0);
+        return stored;
+    }
+
+    private void saveCalibration(MagneticCalibration calibration) {
+        SharedPreferences.Editor editor = getCalibrationPreferences().edit();
+        editor.putBoolean("active", calibration.active);
+        for (int i = 0; i < 3; i++) {
+            editor.putFloat("offset" + i, calibration.offset[i]);
+        }
+        for (int i = 0; i < 9; i++) {
+            editor.putFloat("matrix" + i, calibration.matrix[i]);
+        }
+        editor.putBoolean("softIron", calibration.softIron);
+        editor.putBoolean("raw", calibration.raw);
+        editor.putFloat("fieldStrength", calibration.fieldStrength);
+        editor.putFloat("fitError", calibration.fitError);
+        editor.putInt("sampleCount", calibration.sampleCount);
+        editor.putLong("timestamp", calibration.timestamp);
+        editor.apply();
+    }
+
+    /**
+     * Record every raw event the hub receives (timestamp, sensor type, accuracy, values)
+     * to a compact binary file, by default in the app's files directory.
+     */
+    private void startRecording(final CallbackContext callbackContext, final String path) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder != null) {
+                    callbackContext.error("Recording already in progress");
+                    return;
+                }
+
+                File file = path != null && !path.isEmpty()
+                        ? new File(path)
+                        : new File(cordova.getActivity().getFilesDir(), "magnetometer-" + System.currentTimeMillis() + ".rec");
+                try {
+                    recorder = new SensorRecording.Writer(file);
+                } catch (IOException e) {
+                    callbackContext.error("Failed to start recording: " + e.getMessage());
+                    return;
+                }
+                sensorHub.setRecorder(recorder);
+
+                try {
+                    JSONObject result = new JSONObject();
+                    result.put("path", file.getAbsolutePath());
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to start recording: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void stopRecording(final CallbackContext callbackContext) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder == null) {
+                    callbackContext.error("No recording in progress");
+                    return;
+                }
+
+                SensorRecording.Writer finished = recorder;
+                closeRecorder();
+                try {
+                    JSONObject result = new JSONObject();
+                    result.put("path", finished.getFile().getAbsolutePath());
+                    result.put("eventCount", finished.getEventCount());
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to stop recording: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void closeRecorder() {
+        if (recorder == null) return;
+
+        sensorHub.setRecorder(null);
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing recording: " + e.getMessage());
+        }
+        recorder = null;
+    }
+
+    /**
+     * Write TYPE_MAGNETIC_FIELD, and optionally the uncalibrated magnetometer and the accelerometer,
+     * to a memory-mapped capture file at up to the sensors' fastest rate. Samples never cross the bridge;
+     * the capture keeps running while the app is in the background.
+     */
+    private void startCapture(final CallbackContext callbackContext, final JSONObject options) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (capture != null) {
+                    callbackContext.error("Capture already in progress");
+                    return;
+                }
+
+                String path = options != null ? options.optString("path", null) : null;
+                File file = path != null && !path.isEmpty()
+                        ? new File(path)
+                        : new File(cordova.getActivity().getFilesDir(), "magnetometer-" + System.currentTimeMillis() + ".cap");
+                long maxBytes = options != null
+                        ? options.optLong("maxSizeBytes", DEFAULT_CAPTURE_MAX_BYTES)
+                        : DEFAULT_CAPTURE_MAX_BYTES;
+                try {
+                    capture = new CaptureFile.Writer(file, maxBytes);
+                } catch (IOException e) {
+                    callbackContext.error("Failed to start capture: " + e.getMessage());
+                    return;
+                }
+
+                int rateUs = options != null ? Math.max(0, options.optInt("rateUs", 0)) : 0;
+                List<Integer> sensorTypes = new ArrayList<Integer>();
+                sensorTypes.add(Sensor.TYPE_MAGNETIC_FIELD);
+                if (options != null && options.optBoolean("includeUncalibrated", false)) {
+                    sensorTypes.add(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED);
+                }
+                if (options != null && options.optBoolean("includeAccelerometer", false)) {
+                    sensorTypes.add(Sensor.TYPE_ACCELEROMETER);
+                }
+
+                try {
+                    JSONArray sensors = new JSONArray();
+                    for (int sensorType : sensorTypes) {
+                        if (sensorHub.subscribe(sensorType, captureSubscriber, rateUs, 0)) {
+                            sensors.put(sensorType);
+                        }
+                    }
+                    JSONObject result = new JSONObject();
+                    result.put("path", file.getAbsolutePath());
+                    result.put("sensorTypes", sensors);
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to start capture: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void stopCapture(final CallbackContext callbackContext) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (capture == null) {
+                    callbackContext.error("No capture in progress");
+                    return;
+                }
+
+                CaptureFile.Writer finished = capture;
+                closeCapture();
+                try {
+                    JSONObject result = new JSONObject();
+                    result.put("path", finished.getFile().getAbsolutePath());
+                    result.put("recordCount", finished.getRecordCount());
+                    result.put("droppedCount", finished.getDroppedCount());
+                    result.put("durationMs", finished.getDurationNanos() / 1e6);
+                    result.put("sizeBytes", finished.getFile().length());
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.error("Failed to stop capture: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Return a window of capture records as an ArrayBuffer, read off the sensor thread
+     */
+    private void readCapture(final CallbackContext callbackContext, final String path, final long first, final int count) {
+        if (path == null || path.isEmpty()) {
+            callbackContext.error("A capture path is required");
+            return;
+        }
+
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int records = Math.max(0, Math.min(count, MAX_CAPTURE_WINDOW_RECORDS));
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK,
+                            CaptureFile.readWindow(new File(path), first, records)));
+                } catch (IOException e) {
+                    callbackContext.error("Failed to read capture: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private final SensorHub.Subscriber captureSubscriber = new SensorHub.Subscriber() {
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            if (capture == null) return;
+
+            try {
+                capture.write(sensorType, timestampNanos, values);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Stopped capture: " + e.getMessage());
+                closeCapture();
+            }
+        }
+    };
+
+    private void closeCapture() {
+        if (capture == null) return;
+
+        sensorHub.unsubscribe(captureSubscriber);
+        try {
+            capture.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing capture: " + e.getMessage());
+        }
+        capture = null;
+    }
+
+    /**
+     * Feed a recording through the sensor hub in place of the device sensors, so watches and
+     * one-shot calls see the recorded stream. Resolves when the replay ends or is stopped.
+     */
+    private void startReplay(final CallbackContext callbackContext, final String path, final boolean realtime) {
+        if (path == null || path.isEmpty()) {
+            callbackContext.error("A recording path is required");
+            return;
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (replaySource != null) {
+                    callbackContext.error("Replay already in progress");
+                    return;
+                }
+
+                SensorRecording.Reader reader;
+                try {
+                    reader = new SensorRecording.Reader(new File(path));
+                } catch (IOException e) {
+                    callbackContext.error("Failed to open recording: " + e.getMessage());
+                    return;
+                }
+
+                replayCallbackContext = callbackContext;
+                replaySource = new ReplaySensorSource(reader, handler, realtime, new ReplaySensorSource.CompletionListener() {
+                    @Override
+                    public void onReplayFinished(long eventCount, IOException error) {
+                        endReplay(error == null, error);
+                    }
+                });
+                sensorHub.setSource(replaySource);
+                replaySource.start();
+            }
+        });
+    }
+
+    private void stopReplay(final CallbackContext callbackContext) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                endReplay(false, null);
+                callbackContext.success();
+            }
+        });
+    }
+
+    /**
+     * Switch the hub back to the device sensors and settle the pending startReplay call
+     */
+    private void endReplay(boolean completed, IOException error) {
+        if (replaySource == null) return;
+
+        ReplaySensorSource finished = replaySource;
+        CallbackContext callbackContext = replayCallbackContext;
+        replaySource = null;
+        replayCallbackContext = null;
+        sensorHub.setSource(deviceSource);
+        finished.release();
+
+        if (callbackContext == null) return;
+        if (error != null) {
+            callbackContext.error("Failed to read recording: " + error.getMessage());
+            return;
+        }
+        try {
+            JSONObject result = new JSONObject();
+            result.put("eventCount", finished.getEventCount());
+            result.put("completed", completed);
+            callbackContext.success(result);
+        } catch (JSONException e) {
+            callbackContext.error("Failed to finish replay: " + e.getMessage());
+        }
+    }
+
+    private BiasTracker createBiasTracker(String name) {
+        if (BIAS_TRACKER_SYSTEM.equals(name)) {
+            return new SystemBiasTracker();
+        } else if (BIAS_TRACKER_ENVELOPE.equals(name)) {
+            return new EnvelopeBiasTracker();
+        }
+        return null;
+    }
+
+    /**
+     * Parse the flow control options of a watch.
+     * @return null unless maxInFlight is set, in which case the watch waits for acknowledgements
+     */
+    private DeliveryQueue createDeliveryQueue(JSONObject options) {
+        int maxInFlight = options != null ? options.optInt("maxInFlight", 0) : 0;
+        if (maxInFlight <= 0) {
+            return null;
+        }
+        return new DeliveryQueue(
+                options.optString("deliveryPolicy", DeliveryQueue.POLICY_LATEST),
+                options.optInt("queueSize", 16),
+                maxInFlight);
+    }
+
+    /**
+     * JS consumed count payloads of a watch: grant the credits and send what was held back
+     */
+    private void acknowledgeWatch(final String id, final int count) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Watch watch = watches.get(id);
+                if (watch != null) {
+                    watch.acknowledge(count);
+                }
+            }
+        });
+    }
+
+    private JSONObject createReadingObject(float[] values, long timestampNanos) throws JSONException {
+        return JsonSampleWriter.createReading(values, clock.toEpochMillis(timestampNanos), timestampNanos);
+    }
+
+    private JSONObject calculateHeading(float[] magValues, float[] accelValues, long timestampNanos) throws JSONException {
+        return createHeadingObject(HeadingMath.calculateAzimuth(magValues, accelValues, new float[9], new float[3]), timestampNanos);
+    }
+
+    private JSONObject createHeadingObject(float azimuth, long timestampNanos) throws JSONException {
+        long timestamp = clock.toEpochMillis(timestampNanos);
+        return JsonSampleWriter.createHeading(azimuth, declination.toTrueHeading(azimuth, timestamp), timestamp,
+                timestampNanos);
+    }
+
+    /**
+     * Exact sampling period in microseconds for a requested update interval. The hub clamps it
+     * to what the sensor supports and decimates to it using event timestamps.
+     */
+    private int getSamplingPeriodUs(int frequencyMs) {
+        return Math.max(0, frequencyMs) * 1000;
+    }
+
+    /**
+     * Send a structured error with code and message
+     */
+    private void sendError(CallbackContext callbackContext, int code, String message) {
         try {
             JSONObject error = new JSONObject();
             error.put("code", code);
             error.put("message", message);
-            PluginResult result = new PluginResult(PluginResult.Status.ERROR, error);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
+            callbackContext.error(error);
         } catch (JSONException e) {
-            PluginResult result = new PluginResult(PluginResult.Status.ERROR, message);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
+            callbackContext.error(message);
         }
     }
 
+    @Override
+    public void onPause(boolean multitasking) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                paused = true;
+                for (Watch watch : watches.values()) {
+                    if (watch.followsLifecycle()) {
+                        watch.onPause();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                paused = false;
+                for (Watch watch : watches.values()) {
+                    if (watch.followsLifecycle()) {
+                        watch.onResume();
+                    }
+                }
+            }
+        });
+    }
+
     @Override
     public void onReset() {
-        if (watchCallbackContext != null) {
-            sensorManager.unregisterListener(this, magnetometer);
-            watchCallbackContext = null;
-        }
-        stopHeadingSensors();
-        watchHeadingCallbackContext = null;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopAllWatches();
+            }
+        });
     }
 
     @Override
     public void onDestroy() {
-        onReset();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopAllWatches();
+                sensorHub.release();
+            }
+        });
+        // Lets the posted cleanup run, then drops pending timeouts and stops the thread
+        sensorThread.quitSafely();
+    }
+
+    private void stopAllWatches() {
+        for (Watch watch : watches.values()) {
+            watch.stop();
+        }
+        watches.clear();
+        cancelCalibration();
+        closeRecorder();
+        closeCapture();
+        endReplay(false, null);
     }
 }
@@ -0,0 +1,89 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Field mask of a motion watch and the JSON record it selects. Only the masked parts of a record
+ * are computed and serialized.
+ */
+final class MotionFields {
+
+    /** Calibrated x, y, z in uT */
+    static final int FIELD = 1;
+    static final int MAGNITUDE = 1 << 1;
+    /** magneticHeading and trueHeading */
+    static final int HEADING = 1 << 2;
+    /** pitch and roll */
+    static final int ATTITUDE = 1 << 3;
+    /** accuracy and calibrationNeeded */
+    static final int ACCURACY = 1 << 4;
+    static final int ALL = FIELD | MAGNITUDE | HEADING | ATTITUDE | ACCURACY;
+
+    private static final String[] NAMES = {"field", "magnitude", "heading", "attitude", "accuracy"};
+
+    private MotionFields() {
+    }
+
+    /**
+     * Mask of the named fields; unknown names are ignored
+     * @return ALL for a null or empty list
+     */
+    static int parse(JSONArray names) {
+        if (names == null || names.length() == 0) {
+            return ALL;
+        }
+        int mask = 0;
+        for (int i = 0; i < names.length(); i++) {
+            String name = names.optString(i);
+            for (int bit = 0; bit < NAMES.length; bit++) {
+                if (NAMES[bit].equals(name)) {
+                    mask |= 1 << bit;
+                }
+            }
+        }
+        return mask != 0 ? mask : ALL;
+    }
+
+    /**
+     * Whether the mask needs the device orientation, i.e. a second sensor besides the magnetometer
+     */
+    static boolean needsOrientation(int mask) {
+        return (mask & (HEADING | ATTITUDE)) != 0;
+    }
+
+    /**
+     * @param field calibrated x, y, z
+     * @param orientation azimuth (unused), pitch and roll in radians, as from SensorManager.getOrientation,
+     *                    or null to leave heading and attitude out when the orientation is unknown
+     */
+    static JSONObject toJSON(int mask, float[] field, float magneticHeading, float trueHeading, float[] orientation,
+                             int accuracy, boolean calibrationNeeded, long timestamp, long timestampNanos)
+            throws JSONException {
+        JSONObject record = new JSONObject();
+        if ((mask & FIELD) != 0) {
+            record.put("x", field[0]);
+            record.put("y", field[1]);
+            record.put("z", field[2]);
+        }
+        if ((mask & MAGNITUDE) != 0) {
+            record.put("magnitude", JsonSampleWriter.calculateMagnitude(field));
+        }
+        if ((mask & HEADING) != 0 && orientation != null) {
+            record.put("magneticHeading", magneticHeading);
+            record.put("trueHeading", trueHeading);
+        }
+        if ((mask & ATTITUDE) != 0 && orientation != null) {
+            record.put("pitch", Math.toDegrees(orientation[1]));
+            record.put("roll", Math.toDegrees(orientation[2]));
+        }
+        if ((mask & ACCURACY) != 0) {
+            record.put("accuracy", accuracy);
+            record.put("calibrationNeeded", calibrationNeeded);
+        }
+        record.put("timestamp", timestamp);
+        record.put("timestampNanos", timestampNanos);
+        return record;
+    }
+}
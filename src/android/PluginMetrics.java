@@ -0,0 +1,203 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the sensor pipeline.
+ * Recording only touches atomics, so it is lock-free and cheap enough to leave on at full sensor rate;
+ * a snapshot taken while samples arrive may be off by the samples in flight.
+ */
+class PluginMetrics {
+
+    static final int WATCH_READINGS = 0;
+    static final int WATCH_HEADING = 1;
+    static final int WATCH_ANALYTICS = 2;
+    static final int WATCH_MOTION = 3;
+    private static final String[] WATCH_NAMES = {"readings", "heading", "analytics", "motion"};
+
+    // Platform sensor types are small integers; vendor types are not counted
+    private static final int MAX_SENSOR_TYPE = 63;
+
+    /**
+     * Histogram of durations in power-of-two microsecond buckets
+     */
+    static final class Histogram {
+        // Bucket i counts durations below 2^i microseconds, the last bucket everything above
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long total = count.get();
+            JSONObject result = new JSONObject();
+            result.put("count", total);
+            result.put("meanUs", total > 0 ? totalNanos.get() / 1000.0 / total : 0);
+            result.put("maxUs", maxNanos.get() / 1000.0);
+            result.put("p50Us", percentileUs(total, 0.5));
+            result.put("p90Us", percentileUs(total, 0.9));
+            result.put("p99Us", percentileUs(total, 0.99));
+            return result;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile
+         */
+        private long percentileUs(long total, double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+    }
+
+    private final AtomicLongArray sensorEvents = new AtomicLongArray(MAX_SENSOR_TYPE + 1);
+    private final AtomicLongArray decimatedEvents = new AtomicLongArray(MAX_SENSOR_TYPE + 1);
+    private final AtomicLongArray deliveredEvents = new AtomicLongArray(WATCH_NAMES.length);
+    private final AtomicLongArray filteredEvents = new AtomicLongArray(WATCH_NAMES.length);
+    private final AtomicLongArray droppedEvents = new AtomicLongArray(WATCH_NAMES.length);
+    private final Histogram[] bridgeLatency = {new Histogram(), new Histogram(), new Histogram(), new Histogram()};
+
+    /** Time spent computing a heading from sensor values */
+    final Histogram headingTime = new Histogram();
+    /** Time spent building and sending a watch payload */
+    final Histogram serializationTime = new Histogram();
+
+    private volatile long resetAtMillis = System.currentTimeMillis();
+
+    void recordSensorEvent(int sensorType) {
+        if (sensorType >= 0 && sensorType <= MAX_SENSOR_TYPE) {
+            sensorEvents.incrementAndGet(sensorType);
+        }
+    }
+
+    /**
+     * A sample skipped for one subscriber because it arrived before that subscriber's next due time
+     */
+    void recordDecimated(int sensorType) {
+        if (sensorType >= 0 && sensorType <= MAX_SENSOR_TYPE) {
+            decimatedEvents.incrementAndGet(sensorType);
+        }
+    }
+
+    /**
+     * Name of a WATCH_* type, as used in getMetrics and getWatchInfo
+     */
+    static String getWatchName(int watch) {
+        return WATCH_NAMES[watch];
+    }
+
+    /**
+     * Samples sent to a watch, with the time from the oldest sample's sensor timestamp to the send
+     */
+    void recordDelivered(int watch, int samples, long latencyNanos) {
+        deliveredEvents.addAndGet(watch, samples);
+        bridgeLatency[watch].record(latencyNanos);
+    }
+
+    /**
+     * A sample a watch dropped before it reached the bridge, e.g. by the heading filter
+     */
+    void recordFiltered(int watch) {
+        filteredEvents.incrementAndGet(watch);
+    }
+
+    /**
+     * A sample discarded because JS was not keeping up with the watch
+     */
+    void recordDropped(int watch) {
+        droppedEvents.incrementAndGet(watch);
+    }
+
+    void reset() {
+        for (int i = 0; i <= MAX_SENSOR_TYPE; i++) {
+            sensorEvents.set(i, 0);
+            decimatedEvents.set(i, 0);
+        }
+        for (int i = 0; i < WATCH_NAMES.length; i++) {
+            deliveredEvents.set(i, 0);
+            filteredEvents.set(i, 0);
+            droppedEvents.set(i, 0);
+            bridgeLatency[i].reset();
+        }
+        headingTime.reset();
+        serializationTime.reset();
+        resetAtMillis = System.currentTimeMillis();
+    }
+
+    JSONObject toJSON() throws JSONException {
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - resetAtMillis);
+
+        JSONObject sensors = new JSONObject();
+        for (int type = 0; type <= MAX_SENSOR_TYPE; type++) {
+            long received = sensorEvents.get(type);
+            if (received == 0) {
+                continue;
+            }
+            JSONObject sensor = new JSONObject();
+            sensor.put("received", received);
+            sensor.put("receivedPerSecond", received * 1000.0 / elapsedMs);
+            sensor.put("decimated", decimatedEvents.get(type));
+            sensors.put(String.valueOf(type), sensor);
+        }
+
+        JSONObject watches = new JSONObject();
+        for (int i = 0; i < WATCH_NAMES.length; i++) {
+            JSONObject watch = new JSONObject();
+            watch.put("delivered", deliveredEvents.get(i));
+            watch.put("filtered", filteredEvents.get(i));
+            watch.put("dropped", droppedEvents.get(i));
+            watch.put("bridgeLatency", bridgeLatency[i].toJSON());
+            watches.put(WATCH_NAMES[i], watch);
+        }
+
+        JSONObject timings = new JSONObject();
+        timings.put("heading", headingTime.toJSON());
+        timings.put("serialization", serializationTime.toJSON());
+
+        JSONObject result = new JSONObject();
+        result.put("sinceMs", elapsedMs);
+        result.put("sensors", sensors);
+        result.put("watches", watches);
+        result.put("timings", timings);
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+package com.community.cordova.magnetometer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Sensor source that plays back a {@link SensorRecording} on the hub's handler, either paced like
+ * the original capture or as fast as the pipeline can take it. Timestamps are shifted so the trace
+ * appears to start when playback starts. Only registered sensor types are delivered.
+ */
+class ReplaySensorSource implements SensorSource, Runnable {
+
+    interface CompletionListener {
+        /**
+         * @param eventCount records played back
+         * @param error the read failure, or null if the recording played to the end
+         */
+        void onReplayFinished(long eventCount, IOException error);
+    }
+
+    // Events dispatched per handler message at maximum speed, so stop requests still get through
+    private static final int MAX_SPEED_EVENTS_PER_POST = 256;
+
+    private final SensorRecording.Reader reader;
+    private final Handler handler;
+    private final boolean realtime;
+    private final CompletionListener completionListener;
+    private final Set<Integer> registered = new HashSet<Integer>();
+    private final SensorRecording.Event event = new SensorRecording.Event();
+    private Listener listener;
+
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean hasPendingEvent = false;
+    private long firstTimestampNanos;
+    private long startElapsedNanos;
+    private long eventCount = 0;
+
+    ReplaySensorSource(SensorRecording.Reader reader, Handler handler, boolean realtime,
+                       CompletionListener completionListener) {
+        this.reader = reader;
+        this.handler = handler;
+        this.realtime = realtime;
+        this.completionListener = completionListener;
+    }
+
+    void start() {
+        handler.post(this);
+    }
+
+    long getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean hasSensor(int sensorType) {
+        // Whatever the trace contains can be replayed; missing types simply never deliver
+        return true;
+    }
+
+    @Override
+    public int getMinDelayUs(int sensorType) {
+        return 0;
+    }
+
+    @Override
+    public int getMaxDelayUs(int sensorType) {
+        return 0;
+    }
+
+    @Override
+    public void register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs) {
+        registered.add(sensorType);
+    }
+
+    @Override
+    public void unregister(int sensorType) {
+        registered.remove(sensorType);
+    }
+
+    @Override
+    public void release() {
+        registered.clear();
+        handler.removeCallbacks(this);
+        closeReader();
+        finished = true;
+    }
+
+    @Override
+    public void run() {
+        if (finished) return;
+
+        try {
+            int dispatched = 0;
+            while (true) {
+                if (!hasPendingEvent) {
+                    if (!reader.next(event)) {
+                        finish(null);
+                        return;
+                    }
+                    hasPendingEvent = true;
+                    if (!started) {
+                        started = true;
+                        firstTimestampNanos = event.timestampNanos;
+                        startElapsedNanos = SystemClock.elapsedRealtimeNanos();
+                    }
+                }
+
+                long timestampNanos = startElapsedNanos + (event.timestampNanos - firstTimestampNanos);
+                if (realtime) {
+                    long waitNanos = timestampNanos - SystemClock.elapsedRealtimeNanos();
+                    if (waitNanos > 0) {
+                        handler.postDelayed(this, Math.max(1, waitNanos / 1000000L));
+                        return;
+                    }
+                } else if (dispatched == MAX_SPEED_EVENTS_PER_POST) {
+                    handler.post(this);
+                    return;
+                }
+
+                dispatch(timestampNanos);
+                hasPendingEvent = false;
+                dispatched++;
+                eventCount++;
+            }
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    private void dispatch(long timestampNanos) {
+        if (listener == null || !registered.contains(event.sensorType)) {
+            return;
+        }
+        if (event.isAccuracyChange()) {
+            listener.onSensorAccuracy(event.sensorType, event.accuracy);
+        } else {
+            listener.onSensorSample(event.sensorType, event.values, event.accuracy, timestampNanos);
+        }
+    }
+
+    private void finish(IOException error) {
+        finished = true;
+        closeReader();
+        if (completionListener != null) {
+            completionListener.onReplayFinished(eventCount, error);
+        }
+    }
+
+    private void closeReader() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Nothing left to read from it
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Mean, variance, minimum and maximum over the last N samples, each updated in O(1) per sample.
+ *
+ * Sums are kept relative to a reference value to limit cancellation in the variance and are
+ * recomputed from the window once per window length, so rounding errors do not accumulate.
+ * Minimum and maximum come from monotonic deques of sample indices.
+ */
+final class RollingStats {
+
+    private final int capacity;
+    private final double[] values;
+    // Index of the next sample; the window holds indices [added - count, added)
+    private long added = 0;
+    private int count = 0;
+
+    private double reference = 0;
+    private double sum = 0;
+    private double sumSquares = 0;
+    private int sinceRecompute = 0;
+
+    private final long[] minDeque;
+    private final long[] maxDeque;
+    private int minHead = 0;
+    private int minSize = 0;
+    private int maxHead = 0;
+    private int maxSize = 0;
+
+    RollingStats(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.values = new double[this.capacity];
+        this.minDeque = new long[this.capacity];
+        this.maxDeque = new long[this.capacity];
+    }
+
+    void add(double value) {
+        if (count == 0) {
+            reference = value;
+        }
+        if (count == capacity) {
+            double removed = values[slot(added - capacity)] - reference;
+            sum -= removed;
+            sumSquares -= removed * removed;
+            count--;
+        }
+        values[slot(added)] = value;
+        double shifted = value - reference;
+        sum += shifted;
+        sumSquares += shifted * shifted;
+        count++;
+
+        long expired = added - capacity;
+        if (minSize > 0 && minDeque[minHead] <= expired) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+        while (minSize > 0 && values[slot(minDeque[(minHead + minSize - 1) % capacity])] >= value) {
+            minSize--;
+        }
+        minDeque[(minHead + minSize) % capacity] = added;
+        minSize++;
+
+        if (maxSize > 0 && maxDeque[maxHead] <= expired) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+        while (maxSize > 0 && values[slot(maxDeque[(maxHead + maxSize - 1) % capacity])] <= value) {
+            maxSize--;
+        }
+        maxDeque[(maxHead + maxSize) % capacity] = added;
+        maxSize++;
+
+        added++;
+        if (++sinceRecompute >= capacity) {
+            recompute();
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    double getMean() {
+        return count > 0 ? reference + sum / count : 0;
+    }
+
+    /** Population variance of the window */
+    double getVariance() {
+        if (count == 0) {
+            return 0;
+        }
+        double mean = sum / count;
+        return Math.max(0, sumSquares / count - mean * mean);
+    }
+
+    double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    double getMin() {
+        return minSize > 0 ? values[slot(minDeque[minHead])] : 0;
+    }
+
+    double getMax() {
+        return maxSize > 0 ? values[slot(maxDeque[maxHead])] : 0;
+    }
+
+    private int slot(long index) {
+        return (int) (index % capacity);
+    }
+
+    /**
+     * Rebuild the sums around the current mean
+     */
+    private void recompute() {
+        sinceRecompute = 0;
+        reference = getMean();
+        sum = 0;
+        sumSquares = 0;
+        for (long i = added - count; i < added; i++) {
+            double shifted = values[slot(i)] - reference;
+            sum += shifted;
+            sumSquares += shifted * shifted;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Fixed-capacity ring of x/y/z samples with their sensor timestamps (elapsed realtime nanoseconds).
+ * All storage is allocated up front so adding a sample never allocates.
+ * Timestamps are converted to epoch milliseconds when the ring is drained.
+ */
+class SampleRing {
+
+    /** Number of values per sample in the packed array: x, y, z, timestamp, timestampNanos */
+    static final int PACKED_STRIDE = 5;
+
+    private final float[] values;
+    private final long[] timestamps;
+    private final int capacity;
+
+    private int head = 0;
+    private int count = 0;
+
+    SampleRing(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.values = new float[this.capacity * 3];
+        this.timestamps = new long[this.capacity];
+    }
+
+    /**
+     * Append a sample, overwriting the oldest one when the ring is full.
+     * @return true if the ring is full after adding the sample
+     */
+    boolean add(float x, float y, float z, long timestampNanos) {
+        int index = (head + count) % capacity;
+        if (count == capacity) {
+            head = (head + 1) % capacity;
+        } else {
+            count++;
+        }
+        values[index * 3] = x;
+        values[index * 3 + 1] = y;
+        values[index * 3 + 2] = z;
+        timestamps[index] = timestampNanos;
+        return count == capacity;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Sensor timestamp of the oldest sample; the ring must not be empty
+     */
+    long peekTimestamp() {
+        return timestamps[head];
+    }
+
+    /**
+     * Remove the oldest sample, copying its x, y, z into out; the ring must not be empty.
+     * @return its sensor timestamp
+     */
+    long poll(float[] out) {
+        out[0] = values[head * 3];
+        out[1] = values[head * 3 + 1];
+        out[2] = values[head * 3 + 2];
+        long timestamp = timestamps[head];
+        head = (head + 1) % capacity;
+        count--;
+        return timestamp;
+    }
+
+    /**
+     * Pack the buffered samples, oldest first, as a flat array
+     * [x0, y0, z0, t0, n0, x1, y1, z1, t1, n1, ...] with epoch millisecond timestamps t and sensor
+     * timestamps n in nanoseconds, and empty the ring.
+     */
+    JSONArray drainPacked(SensorClock clock) throws JSONException {
+        JSONArray packed = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % capacity;
+            packed.put(values[index * 3]);
+            packed.put(values[index * 3 + 1]);
+            packed.put(values[index * 3 + 2]);
+            packed.put(clock.toEpochMillis(timestamps[index]));
+            packed.put(timestamps[index]);
+        }
+        clear();
+        return packed;
+    }
+
+    /**
+     * Encode the buffered samples, oldest first, as consecutive binary records
+     * and empty the ring.
+     */
+    byte[] drainBinary(BinarySampleWriter writer, SensorClock clock) {
+        writer.reset();
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % capacity;
+            writer.append(values[index * 3], values[index * 3 + 1], values[index * 3 + 2],
+                    clock.toEpochMillis(timestamps[index]), timestamps[index]);
+        }
+        clear();
+        return writer.toByteArray();
+    }
+}
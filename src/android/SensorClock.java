@@ -0,0 +1,83 @@
+package com.community.cordova.magnetometer;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Maps sensor event timestamps (SystemClock.elapsedRealtimeNanos) to epoch milliseconds.
+ * Shared by all streams so their timestamps agree with each other.
+ *
+ * The offset between the two clocks is re-measured at most once per second, bracketing
+ * System.currentTimeMillis() between two elapsedRealtimeNanos() reads. Small errors, from the
+ * millisecond resolution of the wall clock and its drift against the monotonic clock, are slewed
+ * in a fraction at a time so timestamps within a stream stay smooth; errors above STEP_NANOS
+ * (the wall clock was set) are applied at once.
+ */
+final class SensorClock {
+
+    private static final long RESYNC_INTERVAL_NANOS = 1000000000L;
+    private static final long STEP_NANOS = 100000000L;
+    // Measurements whose two elapsedRealtimeNanos() reads are further apart were preempted and are skipped
+    private static final long MAX_READ_NANOS = 500000L;
+    // Fraction of the measured error corrected per resync
+    private static final double SLEW_GAIN = 0.1;
+
+    private boolean synced = false;
+    // epoch nanoseconds - elapsed realtime nanoseconds
+    private long offsetNanos;
+    private long lastSyncNanos;
+    private long lastErrorNanos;
+    private double driftPpm;
+    private long steps;
+
+    /**
+     * Epoch milliseconds of an elapsed realtime timestamp in nanoseconds
+     */
+    synchronized long toEpochMillis(long elapsedNanos) {
+        maybeSync(elapsedNanos);
+        return (elapsedNanos + offsetNanos) / 1000000L;
+    }
+
+    synchronized JSONObject toJSON() throws JSONException {
+        maybeSync(SystemClock.elapsedRealtimeNanos());
+        JSONObject result = new JSONObject();
+        result.put("offsetNanos", offsetNanos);
+        result.put("lastErrorUs", lastErrorNanos / 1000.0);
+        result.put("driftPpm", driftPpm);
+        result.put("steps", steps);
+        return result;
+    }
+
+    private void maybeSync(long elapsedNanos) {
+        if (synced && elapsedNanos - lastSyncNanos < RESYNC_INTERVAL_NANOS) {
+            return;
+        }
+
+        long before = SystemClock.elapsedRealtimeNanos();
+        long epochMillis = System.currentTimeMillis();
+        long after = SystemClock.elapsedRealtimeNanos();
+        if (synced && after - before > MAX_READ_NANOS) {
+            return;
+        }
+        // currentTimeMillis truncates, so the wall clock was on average half a millisecond later
+        long measured = epochMillis * 1000000L + 500000L - (before + after) / 2;
+
+        long error = measured - offsetNanos;
+        if (!synced || Math.abs(error) > STEP_NANOS) {
+            if (synced) {
+                steps++;
+            }
+            offsetNanos = measured;
+            lastErrorNanos = 0;
+            synced = true;
+        } else {
+            long correction = Math.round(error * SLEW_GAIN);
+            offsetNanos += correction;
+            lastErrorNanos = error;
+            driftPpm += (correction * 1e6 / (after - lastSyncNanos) - driftPpm) * SLEW_GAIN;
+        }
+        lastSyncNanos = after;
+    }
+}
@@ -0,0 +1,364 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares one hardware registration per sensor between all watches and one-shot requests.
+ *
+ * Each sensor is registered at the fastest sampling period and shortest report latency any
+ * subscriber asks for, clamped to the sensor's supported range. Samples are fanned out to
+ * subscribers, decimated by event timestamp to each subscriber's own period, and the latest
+ * sample per sensor is cached for one-shot requests.
+ * Samples come from a {@link SensorSource}, which can be swapped for a recorded trace, and every raw
+ * sample can be written to a {@link SensorRecording}.
+ * Sensor callbacks, and therefore all subscriber callbacks, run on the handler's thread.
+ */
+class SensorHub implements SensorSource.Listener {
+
+    private static final String LOG_TAG = "Magnetometer";
+
+    interface Subscriber {
+        /**
+         * Called for every sample that passes this subscriber's decimation.
+         * The values array is owned by the hub and must be copied if kept.
+         */
+        void onSample(int sensorType, float[] values, long timestampNanos);
+    }
+
+    interface AccuracyListener {
+        void onAccuracyChanged(int sensorType, int accuracy);
+    }
+
+    // Weight of a new interval in the moving averages used for rate reporting and decimation
+    private static final float INTERVAL_SMOOTHING = 0.125f;
+    // Longest interval, relative to the current average, fed into the sensor interval average
+    private static final float MAX_INTERVAL_RATIO = 2f;
+
+    private static class Subscription {
+        final Subscriber subscriber;
+        final long periodNanos;
+        final int maxReportLatencyUs;
+        long nextDueNanos;
+        long lastDeliveredNanos;
+        float deliveredIntervalNanos;
+
+        Subscription(Subscriber subscriber, int samplingPeriodUs, int maxReportLatencyUs) {
+            this.subscriber = subscriber;
+            this.periodNanos = samplingPeriodUs * 1000L;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+    }
+
+    private static class Channel {
+        final int sensorType;
+        final List<Subscription> subscriptions = new ArrayList<Subscription>();
+        Subscription[] snapshot = new Subscription[0];
+
+        int registeredPeriodUs = -1;
+        int registeredLatencyUs = -1;
+        float sensorIntervalNanos;
+
+        final float[] latestValues = new float[6];
+        int latestLength = 0;
+        long latestTimestampNanos = 0;
+
+        Channel(int sensorType) {
+            this.sensorType = sensorType;
+        }
+    }
+
+    private SensorSource source;
+    private final Map<Integer, Channel> channels = new HashMap<Integer, Channel>();
+    private AccuracyListener accuracyListener;
+    private SensorRecording.Writer recorder;
+    private final PluginMetrics metrics;
+
+    SensorHub(SensorSource source, PluginMetrics metrics) {
+        this.source = source;
+        this.metrics = metrics;
+        source.setListener(this);
+    }
+
+    /**
+     * Move every registration to another source, e.g. to replay a recording through the
+     * same pipeline. Cached samples and measured rates from the old source are dropped.
+     */
+    synchronized void setSource(SensorSource newSource) {
+        for (Channel channel : channels.values()) {
+            if (channel.registeredPeriodUs >= 0) {
+                source.unregister(channel.sensorType);
+            }
+            channel.registeredPeriodUs = -1;
+            channel.registeredLatencyUs = -1;
+            channel.sensorIntervalNanos = 0;
+            channel.latestTimestampNanos = 0;
+            for (Subscription subscription : channel.subscriptions) {
+                subscription.nextDueNanos = 0;
+                subscription.lastDeliveredNanos = 0;
+            }
+        }
+        source.setListener(null);
+
+        source = newSource;
+        source.setListener(this);
+        for (Channel channel : channels.values()) {
+            updateChannel(channel);
+        }
+    }
+
+    /**
+     * Write every raw sample and accuracy change to the given recording, or stop recording with null.
+     * The caller owns the writer and closes it.
+     */
+    synchronized void setRecorder(SensorRecording.Writer recorder) {
+        this.recorder = recorder;
+    }
+
+    synchronized void setAccuracyListener(AccuracyListener listener) {
+        this.accuracyListener = listener;
+    }
+
+    /**
+     * Subscribe to a sensor, registering or speeding up the hardware listener if needed.
+     * @return false if the device has no such sensor
+     */
+    synchronized boolean subscribe(int sensorType, Subscriber subscriber, int samplingPeriodUs, int maxReportLatencyUs) {
+        Channel channel = getChannel(sensorType);
+        if (channel == null) {
+            return false;
+        }
+
+        removeSubscription(channel, subscriber);
+        channel.subscriptions.add(new Subscription(subscriber, samplingPeriodUs, maxReportLatencyUs));
+        updateChannel(channel);
+        return true;
+    }
+
+    synchronized void unsubscribe(int sensorType, Subscriber subscriber) {
+        Channel channel = channels.get(sensorType);
+        if (channel != null && removeSubscription(channel, subscriber)) {
+            updateChannel(channel);
+        }
+    }
+
+    synchronized void unsubscribe(Subscriber subscriber) {
+        for (Channel channel : channels.values()) {
+            if (removeSubscription(channel, subscriber)) {
+                updateChannel(channel);
+            }
+        }
+    }
+
+    /**
+     * Copy the latest cached sample for a sensor into out if it is no older than maxAgeMs.
+     * @return the sample timestamp in nanoseconds, or 0 if no fresh sample is cached
+     */
+    synchronized long copyLatest(int sensorType, long maxAgeMs, float[] out) {
+        Channel channel = channels.get(sensorType);
+        if (channel == null || channel.latestTimestampNanos == 0) {
+            return 0;
+        }
+
+        long ageNanos = SystemClock.elapsedRealtimeNanos() - channel.latestTimestampNanos;
+        if (ageNanos > maxAgeMs * 1000000L) {
+            return 0;
+        }
+
+        System.arraycopy(channel.latestValues, 0, out, 0, Math.min(out.length, channel.latestLength));
+        return channel.latestTimestampNanos;
+    }
+
+    /**
+     * Describe a subscription's rates: what was requested, what the sensor was registered at,
+     * and the intervals actually measured from event timestamps.
+     * @return null if the subscriber is not subscribed to the sensor
+     */
+    synchronized JSONObject describe(int sensorType, Subscriber subscriber) throws JSONException {
+        Channel channel = channels.get(sensorType);
+        if (channel == null) {
+            return null;
+        }
+
+        for (Subscription subscription : channel.subscriptions) {
+            if (subscription.subscriber != subscriber) {
+                continue;
+            }
+
+            JSONObject info = new JSONObject();
+            info.put("requestedIntervalMs", subscription.periodNanos / 1e6);
+            info.put("samplingPeriodUs", channel.registeredPeriodUs);
+            info.put("minSamplingPeriodUs", source.getMinDelayUs(sensorType));
+            info.put("maxSamplingPeriodUs", source.getMaxDelayUs(sensorType));
+            info.put("sensorIntervalMs", channel.sensorIntervalNanos / 1e6);
+            info.put("deliveredIntervalMs", subscription.deliveredIntervalNanos / 1e6);
+            info.put("deliveredFrequencyHz",
+                    subscription.deliveredIntervalNanos > 0 ? 1e9 / subscription.deliveredIntervalNanos : 0);
+            return info;
+        }
+        return null;
+    }
+
+    /**
+     * Unregister every hardware listener and drop all subscriptions.
+     */
+    synchronized void release() {
+        source.release();
+        channels.clear();
+    }
+
+    @Override
+    public synchronized void onSensorSample(int sensorType, float[] values, int accuracy, long timestampNanos) {
+        Channel channel = channels.get(sensorType);
+        if (channel == null) {
+            return;
+        }
+        metrics.recordSensorEvent(sensorType);
+
+        if (recorder != null) {
+            try {
+                recorder.writeSample(sensorType, accuracy, timestampNanos, values);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Stopped recording: " + e.getMessage());
+                recorder = null;
+            }
+        }
+
+        long timestamp = timestampNanos;
+        if (channel.latestTimestampNanos != 0 && timestamp > channel.latestTimestampNanos) {
+            // A gap in the stream only nudges the average up: taken at face value it would widen the
+            // decimation tolerance below and let the samples after the gap through in a burst
+            long interval = timestamp - channel.latestTimestampNanos;
+            if (channel.sensorIntervalNanos > 0) {
+                interval = Math.min(interval, (long) (channel.sensorIntervalNanos * MAX_INTERVAL_RATIO));
+            }
+            channel.sensorIntervalNanos = smoothInterval(channel.sensorIntervalNanos, interval);
+        }
+
+        int length = Math.min(values.length, channel.latestValues.length);
+        System.arraycopy(values, 0, channel.latestValues, 0, length);
+        channel.latestLength = length;
+        channel.latestTimestampNanos = timestamp;
+
+        // A sample up to half a sensor interval before the due time is the closest one we will get
+        long toleranceNanos = (long) (channel.sensorIntervalNanos / 2);
+        Subscription[] subscriptions = channel.snapshot;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.nextDueNanos != 0 && timestamp < subscription.nextDueNanos - toleranceNanos) {
+                metrics.recordDecimated(sensorType);
+                continue;
+            }
+
+            // Advance the schedule by whole periods so the average rate matches the request exactly,
+            // restarting it after a gap instead of bursting to catch up. The first sample starts it.
+            if (subscription.nextDueNanos == 0 || subscription.nextDueNanos + subscription.periodNanos <= timestamp) {
+                subscription.nextDueNanos = timestamp + subscription.periodNanos;
+            } else {
+                subscription.nextDueNanos += subscription.periodNanos;
+            }
+            if (subscription.lastDeliveredNanos != 0) {
+                subscription.deliveredIntervalNanos = smoothInterval(subscription.deliveredIntervalNanos,
+                        timestamp - subscription.lastDeliveredNanos);
+            }
+            subscription.lastDeliveredNanos = timestamp;
+            subscription.subscriber.onSample(sensorType, values, timestamp);
+        }
+    }
+
+    private static float smoothInterval(float average, long interval) {
+        return average == 0 ? interval : average + INTERVAL_SMOOTHING * (interval - average);
+    }
+
+    @Override
+    public synchronized void onSensorAccuracy(int sensorType, int accuracy) {
+        if (recorder != null) {
+            try {
+                recorder.writeAccuracy(sensorType, accuracy, SystemClock.elapsedRealtimeNanos());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Stopped recording: " + e.getMessage());
+                recorder = null;
+            }
+        }
+        if (accuracyListener != null) {
+            accuracyListener.onAccuracyChanged(sensorType, accuracy);
+        }
+    }
+
+    private Channel getChannel(int sensorType) {
+        Channel channel = channels.get(sensorType);
+        if (channel == null) {
+            if (!source.hasSensor(sensorType)) {
+                return null;
+            }
+            channel = new Channel(sensorType);
+            channels.put(sensorType, channel);
+        }
+        return channel;
+    }
+
+    private boolean removeSubscription(Channel channel, Subscriber subscriber) {
+        for (int i = 0; i < channel.subscriptions.size(); i++) {
+            if (channel.subscriptions.get(i).subscriber == subscriber) {
+                channel.subscriptions.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-register the hardware listener when the fastest requested period or the
+     * shortest requested report latency changes, and refresh the fan-out snapshot.
+     */
+    private void updateChannel(Channel channel) {
+        channel.snapshot = channel.subscriptions.toArray(new Subscription[0]);
+
+        if (channel.subscriptions.isEmpty()) {
+            if (channel.registeredPeriodUs >= 0) {
+                source.unregister(channel.sensorType);
+            }
+            channel.registeredPeriodUs = -1;
+            channel.registeredLatencyUs = -1;
+            channel.sensorIntervalNanos = 0;
+            return;
+        }
+
+        int periodUs = Integer.MAX_VALUE;
+        int latencyUs = Integer.MAX_VALUE;
+        for (Subscription subscription : channel.subscriptions) {
+            periodUs = Math.min(periodUs, (int) (subscription.periodNanos / 1000L));
+            latencyUs = Math.min(latencyUs, subscription.maxReportLatencyUs);
+        }
+
+        periodUs = Math.max(periodUs, source.getMinDelayUs(channel.sensorType));
+        int maxDelayUs = source.getMaxDelayUs(channel.sensorType);
+        if (maxDelayUs > 0) {
+            periodUs = Math.min(periodUs, maxDelayUs);
+        }
+        // registerListener reads periods of 1-3 us as SENSOR_DELAY_GAME/UI/NORMAL constants
+        if (periodUs <= SensorManager.SENSOR_DELAY_NORMAL) {
+            periodUs = SensorManager.SENSOR_DELAY_FASTEST;
+        }
+
+        if (periodUs == channel.registeredPeriodUs && latencyUs == channel.registeredLatencyUs) {
+            return;
+        }
+
+        if (channel.registeredPeriodUs >= 0) {
+            source.unregister(channel.sensorType);
+        }
+        source.register(channel.sensorType, periodUs, latencyUs);
+        channel.registeredPeriodUs = periodUs;
+        channel.registeredLatencyUs = latencyUs;
+    }
+}
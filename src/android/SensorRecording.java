@@ -0,0 +1,196 @@
+package com.community.cordova.magnetometer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary trace of raw sensor events.
+ *
+ * The file starts with the ASCII magic "MAGR" and an int32 version, followed by little-endian records:
+ * int64 timestamp (ns), int16 sensor type, int8 accuracy, int8 value count, float32 values.
+ * A record without values marks an accuracy change.
+ * Has no Android dependencies, so the test fixtures in test/ are written in the same format.
+ */
+final class SensorRecording {
+
+    static final int MAGIC = 0x5247414D; // "MAGR" read little-endian
+    static final int VERSION = 1;
+    static final int MAX_VALUES = 8;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SensorRecording() {
+    }
+
+    /**
+     * One decoded record. Reused between reads; values has exactly valueCount entries.
+     */
+    static final class Event {
+        long timestampNanos;
+        int sensorType;
+        int accuracy;
+        float[] values;
+
+        // One array per value count so reading never allocates
+        private final float[][] valueArrays = new float[MAX_VALUES + 1][];
+
+        Event() {
+            for (int i = 0; i <= MAX_VALUES; i++) {
+                valueArrays[i] = new float[i];
+            }
+            values = valueArrays[0];
+        }
+
+        boolean isAccuracyChange() {
+            return values.length == 0;
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final File file;
+        private long eventCount = 0;
+
+        Writer(File file) throws IOException {
+            this.file = file;
+            this.channel = new FileOutputStream(file).getChannel();
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        long getEventCount() {
+            return eventCount;
+        }
+
+        void writeSample(int sensorType, int accuracy, long timestampNanos, float[] values) throws IOException {
+            int count = Math.min(values.length, MAX_VALUES);
+            ensureSpace(RECORD_HEADER_SIZE + count * 4);
+            buffer.putLong(timestampNanos);
+            buffer.putShort((short) sensorType);
+            buffer.put((byte) accuracy);
+            buffer.put((byte) count);
+            for (int i = 0; i < count; i++) {
+                buffer.putFloat(values[i]);
+            }
+            eventCount++;
+        }
+
+        void writeAccuracy(int sensorType, int accuracy, long timestampNanos) throws IOException {
+            ensureSpace(RECORD_HEADER_SIZE);
+            buffer.putLong(timestampNanos);
+            buffer.putShort((short) sensorType);
+            buffer.put((byte) accuracy);
+            buffer.put((byte) 0);
+            eventCount++;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void ensureSpace(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean endOfFile = false;
+
+        Reader(File file) throws IOException {
+            this.channel = new FileInputStream(file).getChannel();
+            buffer.flip();
+            if (!fill(HEADER_SIZE) || buffer.getInt() != MAGIC) {
+                channel.close();
+                throw new IOException("Not a sensor recording: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                channel.close();
+                throw new IOException("Unsupported sensor recording version " + version);
+            }
+        }
+
+        /**
+         * Read the next record into event.
+         * @return false at the end of the recording
+         */
+        boolean next(Event event) throws IOException {
+            if (!fill(RECORD_HEADER_SIZE)) {
+                return false;
+            }
+            event.timestampNanos = buffer.getLong();
+            event.sensorType = buffer.getShort();
+            event.accuracy = buffer.get();
+            int count = buffer.get();
+            if (count < 0 || count > MAX_VALUES) {
+                throw new IOException("Corrupt sensor recording");
+            }
+            if (!fill(count * 4)) {
+                throw new EOFException("Truncated sensor recording");
+            }
+            float[] values = event.valueArrays[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = buffer.getFloat();
+            }
+            event.values = values;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Make at least bytes readable in the buffer.
+         * @return false if the file ends first
+         */
+        private boolean fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+            if (endOfFile) {
+                return false;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    endOfFile = true;
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.remaining() >= bytes;
+        }
+    }
+}
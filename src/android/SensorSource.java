@@ -0,0 +1,34 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Where the sensor hub gets its samples from: the device's SensorManager or a recorded trace.
+ * Listener callbacks are made on the hub's handler thread.
+ */
+interface SensorSource {
+
+    interface Listener {
+        /**
+         * A raw sensor sample. The values array is owned by the source and must be copied if kept.
+         */
+        void onSensorSample(int sensorType, float[] values, int accuracy, long timestampNanos);
+
+        void onSensorAccuracy(int sensorType, int accuracy);
+    }
+
+    void setListener(Listener listener);
+
+    boolean hasSensor(int sensorType);
+
+    /** Fastest supported sampling period in microseconds, 0 if unknown */
+    int getMinDelayUs(int sensorType);
+
+    /** Slowest supported sampling period in microseconds, 0 if unspecified */
+    int getMaxDelayUs(int sensorType);
+
+    void register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs);
+
+    void unregister(int sensorType);
+
+    /** Stop delivering samples for every sensor */
+    void release();
+}
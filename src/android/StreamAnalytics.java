@@ -0,0 +1,163 @@
+package com.community.cordova.magnetometer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Rolling statistics of the magnetic field magnitude and axes, with anomaly detection on the magnitude:
+ * crossings of fixed thresholds and samples deviating from the window mean by more than a z-score.
+ * Each detector reports when it enters and when it leaves its anomalous state; leaving takes a margin
+ * (hysteresis) so a noisy signal near a limit does not produce a burst of events.
+ */
+final class StreamAnalytics {
+
+    static final int EVENT_ABOVE_MAX = 1;
+    static final int EVENT_BELOW_MIN = 1 << 1;
+    static final int EVENT_IN_RANGE = 1 << 2;
+    static final int EVENT_Z_SCORE_HIGH = 1 << 3;
+    static final int EVENT_Z_SCORE_NORMAL = 1 << 4;
+
+    static final int[] EVENTS = {EVENT_ABOVE_MAX, EVENT_BELOW_MIN, EVENT_IN_RANGE, EVENT_Z_SCORE_HIGH, EVENT_Z_SCORE_NORMAL};
+    private static final String[] EVENT_NAMES = {"aboveMax", "belowMin", "inRange", "zScoreHigh", "zScoreNormal"};
+
+    // A z-score anomaly ends below this fraction of the threshold
+    private static final double Z_SCORE_HYSTERESIS = 0.8;
+    // Floor on the standard deviation, so sensor noise on a still device is not scored as an anomaly
+    private static final double MIN_STD_DEV_UT = 0.2;
+
+    private static final int RANGE_NORMAL = 0;
+    private static final int RANGE_ABOVE = 1;
+    private static final int RANGE_BELOW = 2;
+
+    private final RollingStats magnitude;
+    private final RollingStats x;
+    private final RollingStats y;
+    private final RollingStats z;
+
+    private final double minMagnitude;
+    private final double maxMagnitude;
+    private final double hysteresis;
+    private final double zScoreThreshold;
+
+    private int range = RANGE_NORMAL;
+    private boolean zScoreHigh = false;
+    private double lastMagnitude;
+    private double lastZScore;
+    private double lastMean;
+    private double lastStdDev;
+
+    /**
+     * @param windowSamples samples in the rolling window
+     * @param minMagnitude lower magnitude limit in uT, NaN for none
+     * @param maxMagnitude upper magnitude limit in uT, NaN for none
+     * @param hysteresis margin in uT the magnitude must move back inside the limits to end a threshold event
+     * @param zScoreThreshold deviation from the window mean in standard deviations that starts an event, 0 for none
+     */
+    StreamAnalytics(int windowSamples, double minMagnitude, double maxMagnitude, double hysteresis,
+                    double zScoreThreshold) {
+        this.magnitude = new RollingStats(windowSamples);
+        this.x = new RollingStats(windowSamples);
+        this.y = new RollingStats(windowSamples);
+        this.z = new RollingStats(windowSamples);
+        this.minMagnitude = minMagnitude;
+        this.maxMagnitude = maxMagnitude;
+        this.hysteresis = Math.max(0, hysteresis);
+        this.zScoreThreshold = zScoreThreshold;
+    }
+
+    static String getEventName(int event) {
+        for (int i = 0; i < EVENTS.length; i++) {
+            if (EVENTS[i] == event) {
+                return EVENT_NAMES[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a sample to the windows.
+     * @return the EVENT_* flags this sample raised, 0 for none
+     */
+    int update(float fieldX, float fieldY, float fieldZ) {
+        double value = Math.sqrt(fieldX * fieldX + fieldY * fieldY + fieldZ * fieldZ);
+        int events = 0;
+
+        // Score against the window before this sample joins it
+        lastMagnitude = value;
+        lastMean = magnitude.getMean();
+        lastStdDev = Math.max(MIN_STD_DEV_UT, magnitude.getStdDev());
+        lastZScore = magnitude.getCount() > 0 ? (value - lastMean) / lastStdDev : 0;
+        if (zScoreThreshold > 0 && magnitude.getCount() >= magnitude.getCapacity() / 2) {
+            double deviation = Math.abs(lastZScore);
+            if (!zScoreHigh && deviation > zScoreThreshold) {
+                zScoreHigh = true;
+                events |= EVENT_Z_SCORE_HIGH;
+            } else if (zScoreHigh && deviation < zScoreThreshold * Z_SCORE_HYSTERESIS) {
+                zScoreHigh = false;
+                events |= EVENT_Z_SCORE_NORMAL;
+            }
+        }
+
+        if (range != RANGE_ABOVE && value > maxMagnitude) {
+            range = RANGE_ABOVE;
+            events |= EVENT_ABOVE_MAX;
+        } else if (range != RANGE_BELOW && value < minMagnitude) {
+            range = RANGE_BELOW;
+            events |= EVENT_BELOW_MIN;
+        } else if ((range == RANGE_ABOVE && value <= maxMagnitude - hysteresis)
+                || (range == RANGE_BELOW && value >= minMagnitude + hysteresis)) {
+            range = RANGE_NORMAL;
+            events |= EVENT_IN_RANGE;
+        }
+
+        magnitude.add(value);
+        x.add(fieldX);
+        y.add(fieldY);
+        z.add(fieldZ);
+        return events;
+    }
+
+    int getCount() {
+        return magnitude.getCount();
+    }
+
+    /**
+     * Describe the sample that raised an event
+     * @param timestamp epoch milliseconds of the sample
+     * @param timestampNanos sensor timestamp of the sample, elapsed realtime nanoseconds
+     */
+    JSONObject eventToJSON(int event, long timestamp, long timestampNanos) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("type", "anomaly");
+        result.put("kind", getEventName(event));
+        result.put("magnitude", lastMagnitude);
+        result.put("zScore", lastZScore);
+        result.put("mean", lastMean);
+        result.put("stdDev", lastStdDev);
+        result.put("timestamp", timestamp);
+        result.put("timestampNanos", timestampNanos);
+        return result;
+    }
+
+    JSONObject summaryToJSON(long timestamp, long timestampNanos) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("type", "summary");
+        result.put("count", magnitude.getCount());
+        result.put("magnitude", statsToJSON(magnitude));
+        result.put("x", statsToJSON(x));
+        result.put("y", statsToJSON(y));
+        result.put("z", statsToJSON(z));
+        result.put("timestamp", timestamp);
+        result.put("timestampNanos", timestampNanos);
+        return result;
+    }
+
+    private static JSONObject statsToJSON(RollingStats stats) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("mean", stats.getMean());
+        result.put("stdDev", stats.getStdDev());
+        result.put("min", stats.getMin());
+        result.put("max", stats.getMax());
+        return result;
+    }
+}
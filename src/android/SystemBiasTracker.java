@@ -0,0 +1,22 @@
+package com.community.cordova.magnetometer;
+
+/**
+ * Uses the bias reported by the system with each uncalibrated sample. The result matches
+ * TYPE_MAGNETIC_FIELD, including its jumps when the system recalibrates.
+ */
+class SystemBiasTracker implements BiasTracker {
+
+    private final float[] bias = new float[3];
+
+    @Override
+    public void update(float[] values, long timestampNanos) {
+        if (values.length >= 6) {
+            System.arraycopy(values, 3, bias, 0, 3);
+        }
+    }
+
+    @Override
+    public void getBias(float[] out) {
+        System.arraycopy(bias, 0, out, 0, 3);
+    }
+}
@@ -1,5 +1,5 @@
-var watchInterval = null;
-var watchHeadingInterval = null;
+// Active watches by ID: { type, frequency, source (sensor or interval), batchTimer }
+var watches = {};
 
 module.exports = {
     isAvailable: function(successCallback, errorCallback) {
@@ -94,10 +94,13 @@ module.exports = {
 
     watchReadings: function(successCallback, errorCallback, args) {
         var frequency = args && args[0] ? args[0] : 100;
-
-        if (watchInterval) {
-            clearInterval(watchInterval);
+        var options = args && args[1];
+        var watch = startWatch(options && options.id ? options.id : 'readings', 'readings', frequency);
+        if (!watch) {
+            errorCallback("Watch ID '" + options.id + "' is in use by another watch");
+            return;
         }
+        var emitReading = createReadingEmitter(successCallback, options, watch);
 
         if ('Magnetometer' in window) {
             try {
@@ -106,15 +109,8 @@ module.exports = {
                     var x = sensor.x || 0;
                     var y = sensor.y || 0;
                     var z = sensor.z || 0;
-                    var magnitude = Math.sqrt(x * x + y * y + z * z);
 
-                    successCallback({
-                        x: x,
-                        y: y,
-                        z: z,
-                        magnitude: magnitude,
-                        timestamp: Date.now()
-                    });
+                    emitReading(x, y, z, Date.now());
                 });
                 sensor.addEventListener('error', function(event) {
                     errorCallback(event.error.message || 'Magnetometer error');
@@ -122,39 +118,31 @@ module.exports = {
                 sensor.start();
 
                 // Store reference for stopping
-                watchInterval = sensor;
+                watch.source = sensor;
             } catch (e) {
                 // Fall back to mock data
-                startMockWatch(successCallback, frequency);
+                watch.source = startMockWatch(emitReading, frequency);
             }
         } else {
             // Fall back to mock data
-            startMockWatch(successCallback, frequency);
+            watch.source = startMockWatch(emitReading, frequency);
         }
     },
 
-    stopWatch: function(successCallback, errorCallback) {
-        if (watchInterval) {
-            if (typeof watchInterval.stop === 'function') {
-                watchInterval.stop();
-            } else {
-                clearInterval(watchInterval);
-            }
-            watchInterval = null;
-        }
+    stopWatch: function(successCallback, errorCallback, args) {
+        stopWatches('readings', args && args[0]);
         successCallback();
     },
 
     watchHeading: function(successCallback, errorCallback, args) {
         var frequency = args && args[0] ? args[0] : 100;
-
-        if (watchHeadingInterval) {
-            if (typeof watchHeadingInterval.stop === 'function') {
-                watchHeadingInterval.stop();
-            } else {
-                clearInterval(watchHeadingInterval);
-            }
+        var options = args && args[2];
+        var watch = startWatch(options && options.id ? options.id : 'heading', 'heading', frequency);
+        if (!watch) {
+            errorCallback("Watch ID '" + options.id + "' is in use by another watch");
+            return;
         }
+        var emitHeading = createHeadingEmitter(successCallback, args && args[1], options);
 
         if ('AbsoluteOrientationSensor' in window) {
             try {
@@ -163,39 +151,31 @@ module.exports = {
                     var q = sensor.quaternion;
                     var heading = quaternionToHeading(q);
 
-                    successCallback({
-                        magneticHeading: heading,
-                        trueHeading: heading,
-                        headingAccuracy: -1,
-                        timestamp: Date.now()
-                    });
+                    emitHeading(heading, Date.now());
                 });
                 sensor.addEventListener('error', function(event) {
                     errorCallback(event.error.message || 'Orientation sensor error');
                 });
                 sensor.start();
 
-                watchHeadingInterval = sensor;
+                watch.source = sensor;
             } catch (e) {
-                startMockHeadingWatch(successCallback, frequency);
+                watch.source = startMockHeadingWatch(emitHeading, frequency);
             }
         } else {
-            startMockHeadingWatch(successCallback, frequency);
+            watch.source = startMockHeadingWatch(emitHeading, frequency);
         }
     },
 
-    stopWatchHeading: function(successCallback, errorCallback) {
-        if (watchHeadingInterval) {
-            if (typeof watchHeadingInterval.stop === 'function') {
-                watchHeadingInterval.stop();
-            } else {
-                clearInterval(watchHeadingInterval);
-            }
-            watchHeadingInterval = null;
-        }
+    stopWatchHeading: function(successCallback, errorCallback, args) {
+        stopWatches('heading', args && args[0]);
         successCallback();
     },
 
+    setLocation: function(successCallback, errorCallback) {
+        errorCallback('Declination is not supported in the browser');
+    },
+
     getMagnetometerInfo: function(successCallback, errorCallback) {
         var available = 'Magnetometer' in window || 'AbsoluteOrientationSensor' in window;
 
@@ -220,6 +200,19 @@ module.exports = {
         });
     },
 
+    ackWatch: function(successCallback, errorCallback) {
+        // The browser delivers directly to the callback, so there is no queue to release
+        successCallback();
+    },
+
+    getWatchInfo: function(successCallback, errorCallback) {
+        var info = {};
+        Object.keys(watches).forEach(function(id) {
+            info[id] = describeWatch(watches[id]);
+        });
+        successCallback(info);
+    },
+
     getAccuracy: function(successCallback, errorCallback) {
         successCallback(3); // High accuracy (mock)
     },
@@ -228,6 +221,70 @@ module.exports = {
         successCallback(0); // No calibration needed (mock)
     },
 
+    startCalibration: function(successCallback, errorCallback) {
+        errorCallback({ code: 4, message: 'Calibration is not supported in the browser' });
+    },
+
+    getCalibration: function(successCallback, errorCallback) {
+        successCallback({ active: false });
+    },
+
+    resetCalibration: function(successCallback, errorCallback) {
+        successCallback();
+    },
+
+    startRecording: function(successCallback, errorCallback) {
+        errorCallback('Recording is not supported in the browser');
+    },
+
+    stopRecording: function(successCallback, errorCallback) {
+        errorCallback('No recording in progress');
+    },
+
+    startCapture: function(successCallback, errorCallback) {
+        errorCallback('Capture is not supported in the browser');
+    },
+
+    stopCapture: function(successCallback, errorCallback) {
+        errorCallback('No capture in progress');
+    },
+
+    readCapture: function(successCallback, errorCallback) {
+        errorCallback('Capture is not supported in the browser');
+    },
+
+    startReplay: function(successCallback, errorCallback) {
+        errorCallback('Replay is not supported in the browser');
+    },
+
+    stopReplay: function(successCallback, errorCallback) {
+        successCallback();
+    },
+
+    watchAnalytics: function(successCallback, errorCallback) {
+        errorCallback('Analytics are not supported in the browser');
+    },
+
+    stopAnalytics: function(successCallback, errorCallback) {
+        successCallback();
+    },
+
+    watchMotion: function(successCallback, errorCallback) {
+        errorCallback('Motion is not supported in the browser');
+    },
+
+    stopMotion: function(successCallback, errorCallback) {
+        successCallback();
+    },
+
+    getMetrics: function(successCallback, errorCallback) {
+        errorCallback('Metrics are not supported in the browser');
+    },
+
+    resetMetrics: function(successCallback, errorCallback) {
+        successCallback();
+    },
+
     getFieldStrength: function(successCallback, errorCallback) {
         if ('Magnetometer' in window) {
             try {
@@ -253,31 +310,214 @@ module.exports = {
     }
 };
 
-function startMockWatch(successCallback, frequency) {
+/**
+ * Register a watch, stopping any watch of the same type with the same ID
+ * @returns the watch, or null when the ID is in use by a watch of another type
+ */
+function startWatch(id, type, frequency) {
+    if (watches[id] && watches[id].type !== type) {
+        return null;
+    }
+    if (watches[id]) {
+        stopBrowserWatch(watches[id]);
+    }
+    watches[id] = { type: type, frequency: frequency, source: null, batchTimer: null };
+    return watches[id];
+}
+
+/**
+ * Stop the watch with the given ID, or every watch of the type when id is omitted
+ */
+function stopWatches(type, id) {
+    Object.keys(watches).forEach(function(watchId) {
+        var watch = watches[watchId];
+        if (watch.type === type && (!id || id === watchId)) {
+            stopBrowserWatch(watch);
+            delete watches[watchId];
+        }
+    });
+}
+
+function stopBrowserWatch(watch) {
+    if (watch.source) {
+        if (typeof watch.source.stop === 'function') {
+            watch.source.stop();
+        } else {
+            clearInterval(watch.source);
+        }
+        watch.source = null;
+    }
+    if (watch.batchTimer) {
+        clearTimeout(watch.batchTimer);
+        watch.batchTimer = null;
+    }
+}
+
+function describeWatch(watch) {
+    var frequency = watch.frequency;
+    return {
+        type: watch.type,
+        requestedIntervalMs: frequency,
+        samplingPeriodUs: frequency * 1000,
+        minSamplingPeriodUs: 0,
+        maxSamplingPeriodUs: 0,
+        sensorIntervalMs: frequency,
+        deliveredIntervalMs: frequency,
+        deliveredFrequencyHz: 1000 / frequency
+    };
+}
+
+function startMockWatch(emitReading, frequency) {
     var angle = 0;
-    watchInterval = setInterval(function() {
+    return setInterval(function() {
         angle += 0.1;
-        successCallback({
-            x: 25.5 + Math.sin(angle) * 5,
-            y: -12.3 + Math.cos(angle) * 5,
-            z: 45.8 + Math.sin(angle * 0.5) * 3,
-            magnitude: 54.2 + Math.sin(angle) * 2,
-            timestamp: Date.now()
-        });
+        emitReading(
+            25.5 + Math.sin(angle) * 5,
+            -12.3 + Math.cos(angle) * 5,
+            45.8 + Math.sin(angle * 0.5) * 3,
+            Date.now()
+        );
     }, frequency);
 }
 
-function startMockHeadingWatch(successCallback, frequency) {
+/**
+ * Build the function that hands readings to the watch callback.
+ * With batch options it mirrors the native packed format [x0, y0, z0, t0, n0, x1, ...],
+ * flushing when batchSize readings are buffered or maxLatencyMs has passed.
+ */
+function createReadingEmitter(successCallback, batchOptions, watch) {
+    var batchSize = batchOptions && batchOptions.batchSize ? batchOptions.batchSize : 0;
+    var binary = batchOptions && batchOptions.format === 'binary';
+
+    if (binary && batchSize <= 0) {
+        return function(x, y, z, timestamp) {
+            successCallback(encodeRecords([x, y, z, timestamp, elapsedNanos()]));
+        };
+    }
+
+    if (batchSize <= 0) {
+        return function(x, y, z, timestamp) {
+            successCallback({
+                x: x,
+                y: y,
+                z: z,
+                magnitude: Math.sqrt(x * x + y * y + z * z),
+                timestamp: timestamp
+            });
+        };
+    }
+
+    var maxLatencyMs = batchOptions.maxLatencyMs || 0;
+    var packed = [];
+
+    function flush() {
+        if (watch.batchTimer) {
+            clearTimeout(watch.batchTimer);
+            watch.batchTimer = null;
+        }
+        if (packed.length > 0) {
+            var batch = packed;
+            packed = [];
+            successCallback(binary ? encodeRecords(batch) : batch);
+        }
+    }
+
+    return function(x, y, z, timestamp) {
+        packed.push(x, y, z, timestamp, elapsedNanos());
+        if (packed.length >= batchSize * 5) {
+            flush();
+        } else if (packed.length === 5 && maxLatencyMs > 0) {
+            watch.batchTimer = setTimeout(flush, maxLatencyMs);
+        }
+    };
+}
+
+function startMockHeadingWatch(emitHeading, frequency) {
     var heading = 180;
-    watchHeadingInterval = setInterval(function() {
+    return setInterval(function() {
         heading = (heading + 1) % 360;
+        emitHeading(heading, Date.now());
+    }, frequency);
+}
+
+/**
+ * Encode packed [a, b, c, timestamp, timestampNanos, ...] values using the native binary layout:
+ * 28-byte little-endian records of float32 a, b, c, int64 timestamp and int64 timestampNanos.
+ */
+function encodeRecords(packed) {
+    var buffer = new ArrayBuffer(packed.length / 5 * 28);
+    var view = new DataView(buffer);
+    for (var i = 0, offset = 0; i < packed.length; i += 5, offset += 28) {
+        view.setFloat32(offset, packed[i], true);
+        view.setFloat32(offset + 4, packed[i + 1], true);
+        view.setFloat32(offset + 8, packed[i + 2], true);
+        setInt64(view, offset + 12, packed[i + 3]);
+        setInt64(view, offset + 20, packed[i + 4]);
+    }
+    return buffer;
+}
+
+function setInt64(view, offset, value) {
+    view.setUint32(offset, value % 4294967296, true);
+    view.setUint32(offset + 4, Math.floor(value / 4294967296), true);
+}
+
+/**
+ * Monotonic nanoseconds standing in for the sensor timestamp of binary and batched records
+ */
+function elapsedNanos() {
+    return Math.round(performance.now() * 1000000);
+}
+
+/**
+ * Build the function that hands headings to the watch callback, as objects or binary records.
+ * Mirrors the native filter: optional EMA smoothing, a deadband in degrees and a minimum interval.
+ */
+function createHeadingEmitter(successCallback, filter, headingOptions) {
+    var binary = headingOptions && headingOptions.format === 'binary';
+    var deadband = filter || 0;
+    var minIntervalMs = headingOptions && headingOptions.minIntervalMs ? headingOptions.minIntervalMs : 0;
+    var smoothing = headingOptions && headingOptions.smoothing ? Math.min(0.99, headingOptions.smoothing) : 0;
+    var smoothed = null;
+    var lastHeading = null;
+    var lastTimestamp = 0;
+
+    return function(rawHeading, timestamp) {
+        smoothed = smoothed === null ? rawHeading : normalizeHeading(smoothed + (1 - smoothing) * headingDelta(rawHeading, smoothed));
+        if (lastHeading !== null &&
+            (timestamp - lastTimestamp < minIntervalMs || Math.abs(headingDelta(smoothed, lastHeading)) < deadband)) {
+            return;
+        }
+        lastHeading = smoothed;
+        lastTimestamp = timestamp;
+
+        var heading = smoothed;
+        if (binary) {
+            successCallback(encodeRecords([heading, heading, -1, timestamp, elapsedNanos()]));
+            return;
+        }
         successCallback({
             magneticHeading: heading,
             trueHeading: heading,
             headingAccuracy: -1,
-            timestamp: Date.now()
+            timestamp: timestamp
         });
-    }, frequency);
+    };
+}
+
+/**
+ * Signed shortest rotation between two headings, in (-180, 180]
+ */
+function headingDelta(to, from) {
+    var delta = (to - from) % 360;
+    if (delta > 180) delta -= 360;
+    else if (delta <= -180) delta += 360;
+    return delta;
+}
+
+function normalizeHeading(heading) {
+    heading %= 360;
+    return heading < 0 ? heading + 360 : heading;
 }
 
 function quaternionToHeading(q) {
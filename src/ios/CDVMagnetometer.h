@@ -23,4 +23,25 @@
 - (void)isCalibrationNeeded:(CDVInvokedUrlCommand *)command;
 - (void)getFieldStrength:(CDVInvokedUrlCommand *)command;
 
+// Android-only features, answered so their promises and error callbacks settle on iOS
+- (void)watchAnalytics:(CDVInvokedUrlCommand *)command;
+- (void)stopAnalytics:(CDVInvokedUrlCommand *)command;
+- (void)watchMotion:(CDVInvokedUrlCommand *)command;
+- (void)stopMotion:(CDVInvokedUrlCommand *)command;
+- (void)ackWatch:(CDVInvokedUrlCommand *)command;
+- (void)getWatchInfo:(CDVInvokedUrlCommand *)command;
+- (void)setLocation:(CDVInvokedUrlCommand *)command;
+- (void)startCalibration:(CDVInvokedUrlCommand *)command;
+- (void)getCalibration:(CDVInvokedUrlCommand *)command;
+- (void)resetCalibration:(CDVInvokedUrlCommand *)command;
+- (void)startRecording:(CDVInvokedUrlCommand *)command;
+- (void)stopRecording:(CDVInvokedUrlCommand *)command;
+- (void)startCapture:(CDVInvokedUrlCommand *)command;
+- (void)stopCapture:(CDVInvokedUrlCommand *)command;
+- (void)readCapture:(CDVInvokedUrlCommand *)command;
+- (void)startReplay:(CDVInvokedUrlCommand *)command;
+- (void)stopReplay:(CDVInvokedUrlCommand *)command;
+- (void)getMetrics:(CDVInvokedUrlCommand *)command;
+- (void)resetMetrics:(CDVInvokedUrlCommand *)command;
+
 @end
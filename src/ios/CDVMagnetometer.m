@@ -333,6 +333,97 @@ static const int ERROR_NOT_AVAILABLE = 3;
     }];
 }
 
+#pragma mark - Android-only Features
+
+- (void)sendNotSupported:(NSString *)feature callbackId:(NSString *)callbackId {
+    [self sendErrorWithCode:ERROR_NOT_AVAILABLE
+                    message:[NSString stringWithFormat:@"%@ not supported on iOS", feature]
+                 callbackId:callbackId];
+}
+
+- (void)sendOk:(NSString *)callbackId {
+    CDVPluginResult *result = [CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+    [self.commandDelegate sendPluginResult:result callbackId:callbackId];
+}
+
+- (void)watchAnalytics:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Analytics" callbackId:command.callbackId];
+}
+
+- (void)stopAnalytics:(CDVInvokedUrlCommand *)command {
+    [self sendOk:command.callbackId];
+}
+
+- (void)watchMotion:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Motion" callbackId:command.callbackId];
+}
+
+- (void)stopMotion:(CDVInvokedUrlCommand *)command {
+    [self sendOk:command.callbackId];
+}
+
+- (void)ackWatch:(CDVInvokedUrlCommand *)command {
+    // Watches deliver directly to their callback, so there is no queue to release
+    [self sendOk:command.callbackId];
+}
+
+- (void)getWatchInfo:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Watch info" callbackId:command.callbackId];
+}
+
+- (void)setLocation:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Declination" callbackId:command.callbackId];
+}
+
+- (void)startCalibration:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Calibration" callbackId:command.callbackId];
+}
+
+- (void)getCalibration:(CDVInvokedUrlCommand *)command {
+    CDVPluginResult *result = [CDVPluginResult resultWithStatus:CDVCommandStatus_OK messageAsDictionary:@{ @"active": @NO }];
+    [self.commandDelegate sendPluginResult:result callbackId:command.callbackId];
+}
+
+- (void)resetCalibration:(CDVInvokedUrlCommand *)command {
+    [self sendOk:command.callbackId];
+}
+
+- (void)startRecording:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Recording" callbackId:command.callbackId];
+}
+
+- (void)stopRecording:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Recording" callbackId:command.callbackId];
+}
+
+- (void)startCapture:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Capture" callbackId:command.callbackId];
+}
+
+- (void)stopCapture:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Capture" callbackId:command.callbackId];
+}
+
+- (void)readCapture:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Capture" callbackId:command.callbackId];
+}
+
+- (void)startReplay:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Replay" callbackId:command.callbackId];
+}
+
+- (void)stopReplay:(CDVInvokedUrlCommand *)command {
+    [self sendOk:command.callbackId];
+}
+
+- (void)getMetrics:(CDVInvokedUrlCommand *)command {
+    [self sendNotSupported:@"Metrics" callbackId:command.callbackId];
+}
+
+- (void)resetMetrics:(CDVInvokedUrlCommand *)command {
+    [self sendOk:command.callbackId];
+}
+
 - (void)onReset {
     [self.motionManager stopDeviceMotionUpdates];
     [self.motionManager stopMagnetometerUpdates];
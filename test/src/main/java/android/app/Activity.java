@@ -0,0 +1,9 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * JVM shim: tests subclass it to provide the sensor service, preferences and files directory.
+ */
+public abstract class Activity extends Context {
+}
@@ -0,0 +1,18 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM shim: the services the plugin looks up from its activity.
+ */
+public abstract class Context {
+
+    public static final String SENSOR_SERVICE = "sensor";
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract Object getSystemService(String name);
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getFilesDir();
+}
@@ -0,0 +1,33 @@
+package android.content;
+
+/**
+ * JVM shim: the subset of SharedPreferences the plugin uses.
+ */
+public interface SharedPreferences {
+
+    boolean getBoolean(String key, boolean defValue);
+
+    float getFloat(String key, float defValue);
+
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putBoolean(String key, boolean value);
+
+        Editor putFloat(String key, float value);
+
+        Editor putInt(String key, int value);
+
+        Editor putLong(String key, long value);
+
+        Editor clear();
+
+        void apply();
+
+        boolean commit();
+    }
+}
@@ -0,0 +1,52 @@
+package android.hardware;
+
+/**
+ * JVM shim: a centered dipole from the degree-1 IGRF-13 (2020) coefficients instead of the full
+ * World Magnetic Model. Declinations are off by several degrees against the real model but vary
+ * smoothly with location, which is what tests of the declination cache need.
+ */
+public class GeomagneticField {
+
+    private static final double EARTH_REFERENCE_RADIUS_KM = 6371.2;
+    private static final double G10 = -29404.8;
+    private static final double G11 = -1450.9;
+    private static final double H11 = 4652.5;
+
+    private final float declination;
+    private final float inclination;
+    private final float fieldStrength;
+
+    public GeomagneticField(float gdLatitudeDeg, float gdLongitudeDeg, float altitudeMeters, long timeMillis) {
+        double theta = Math.toRadians(90 - gdLatitudeDeg);
+        double phi = Math.toRadians(gdLongitudeDeg);
+        double ratio = EARTH_REFERENCE_RADIUS_KM / (EARTH_REFERENCE_RADIUS_KM + altitudeMeters / 1000.0);
+        double scale = ratio * ratio * ratio;
+        double equatorial = G11 * Math.cos(phi) + H11 * Math.sin(phi);
+
+        double radial = 2 * scale * (G10 * Math.cos(theta) + equatorial * Math.sin(theta));
+        double southward = scale * (G10 * Math.sin(theta) - equatorial * Math.cos(theta));
+        double eastward = scale * (G11 * Math.sin(phi) - H11 * Math.cos(phi));
+
+        double north = -southward;
+        double down = -radial;
+        double horizontal = Math.hypot(north, eastward);
+        declination = (float) Math.toDegrees(Math.atan2(eastward, north));
+        inclination = (float) Math.toDegrees(Math.atan2(down, horizontal));
+        fieldStrength = (float) Math.sqrt(horizontal * horizontal + down * down);
+    }
+
+    /** Degrees east of true north */
+    public float getDeclination() {
+        return declination;
+    }
+
+    /** Degrees below the horizontal */
+    public float getInclination() {
+        return inclination;
+    }
+
+    /** Nanoteslas */
+    public float getFieldStrength() {
+        return fieldStrength;
+    }
+}
@@ -0,0 +1,39 @@
+package android.hardware;
+
+/**
+ * JVM shim: sensor type constants and the delays the plugin reads. Android creates sensors
+ * internally; the public constructor lets a fake SensorManager describe its sensors.
+ */
+public class Sensor {
+
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+    public static final int TYPE_MAGNETIC_FIELD_UNCALIBRATED = 14;
+    public static final int TYPE_GEOMAGNETIC_ROTATION_VECTOR = 20;
+
+    private final int type;
+    private final int minDelay;
+    private final int maxDelay;
+
+    public Sensor(int type, int minDelay, int maxDelay) {
+        this.type = type;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /** Fastest sampling period in microseconds */
+    public int getMinDelay() {
+        return minDelay;
+    }
+
+    /** Slowest sampling period in microseconds */
+    public int getMaxDelay() {
+        return maxDelay;
+    }
+}
@@ -0,0 +1,16 @@
+package android.hardware;
+
+/**
+ * JVM shim of the event passed to {@link SensorEventListener#onSensorChanged}.
+ */
+public class SensorEvent {
+
+    public final float[] values;
+    public Sensor sensor;
+    public int accuracy;
+    public long timestamp;
+
+    public SensorEvent(int valueSize) {
+        values = new float[valueSize];
+    }
+}
@@ -0,0 +1,8 @@
+package android.hardware;
+
+public interface SensorEventListener {
+
+    void onSensorChanged(SensorEvent event);
+
+    void onAccuracyChanged(Sensor sensor, int accuracy);
+}
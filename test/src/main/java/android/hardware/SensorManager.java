@@ -0,0 +1,140 @@
+package android.hardware;
+
+import android.os.Handler;
+
+/**
+ * JVM shim. The static math is a port of the platform formulas so headings and attitude are
+ * computed as on a device; the instance methods are left to a fake implementation.
+ */
+public abstract class SensorManager {
+
+    public static final int SENSOR_DELAY_FASTEST = 0;
+    public static final int SENSOR_DELAY_GAME = 1;
+    public static final int SENSOR_DELAY_UI = 2;
+    public static final int SENSOR_DELAY_NORMAL = 3;
+
+    public static final int SENSOR_STATUS_NO_CONTACT = -1;
+    public static final int SENSOR_STATUS_UNRELIABLE = 0;
+    public static final int SENSOR_STATUS_ACCURACY_LOW = 1;
+    public static final int SENSOR_STATUS_ACCURACY_MEDIUM = 2;
+    public static final int SENSOR_STATUS_ACCURACY_HIGH = 3;
+
+    public static final float STANDARD_GRAVITY = 9.80665f;
+
+    public abstract Sensor getDefaultSensor(int type);
+
+    public abstract boolean registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs,
+                                             int maxReportLatencyUs, Handler handler);
+
+    public abstract void unregisterListener(SensorEventListener listener, Sensor sensor);
+
+    public abstract void unregisterListener(SensorEventListener listener);
+
+    /**
+     * Rotation matrix from the world frame (east, north, up) to the device frame, from gravity
+     * and geomagnetic vectors in device coordinates.
+     * @return false in free fall or close to the magnetic poles
+     */
+    public static boolean getRotationMatrix(float[] R, float[] I, float[] gravity, float[] geomagnetic) {
+        float ax = gravity[0];
+        float ay = gravity[1];
+        float az = gravity[2];
+        float normsqA = ax * ax + ay * ay + az * az;
+        float freeFallGravitySquared = 0.01f * STANDARD_GRAVITY * STANDARD_GRAVITY;
+        if (normsqA < freeFallGravitySquared) {
+            return false;
+        }
+
+        float ex = geomagnetic[0];
+        float ey = geomagnetic[1];
+        float ez = geomagnetic[2];
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normH < 0.1f) {
+            return false;
+        }
+        float invH = 1.0f / normH;
+        hx *= invH;
+        hy *= invH;
+        hz *= invH;
+        float invA = 1.0f / (float) Math.sqrt(normsqA);
+        ax *= invA;
+        ay *= invA;
+        az *= invA;
+        float mx = ay * hz - az * hy;
+        float my = az * hx - ax * hz;
+        float mz = ax * hy - ay * hx;
+
+        if (R != null) {
+            if (R.length == 9) {
+                R[0] = hx; R[1] = hy; R[2] = hz;
+                R[3] = mx; R[4] = my; R[5] = mz;
+                R[6] = ax; R[7] = ay; R[8] = az;
+            } else if (R.length == 16) {
+                R[0] = hx; R[1] = hy; R[2] = hz; R[3] = 0;
+                R[4] = mx; R[5] = my; R[6] = mz; R[7] = 0;
+                R[8] = ax; R[9] = ay; R[10] = az; R[11] = 0;
+                R[12] = 0; R[13] = 0; R[14] = 0; R[15] = 1;
+            }
+        }
+        if (I != null) {
+            float invE = 1.0f / (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+            float c = (ex * mx + ey * my + ez * mz) * invE;
+            float s = (ex * ax + ey * ay + ez * az) * invE;
+            if (I.length == 9) {
+                I[0] = 1; I[1] = 0; I[2] = 0;
+                I[3] = 0; I[4] = c; I[5] = s;
+                I[6] = 0; I[7] = -s; I[8] = c;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rotation matrix from a rotation vector (x, y, z and optionally the scalar w of a unit quaternion)
+     */
+    public static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+        float q1 = rotationVector[0];
+        float q2 = rotationVector[1];
+        float q3 = rotationVector[2];
+        float q0;
+        if (rotationVector.length >= 4) {
+            q0 = rotationVector[3];
+        } else {
+            q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+            q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+        }
+
+        float sqQ1 = 2 * q1 * q1;
+        float sqQ2 = 2 * q2 * q2;
+        float sqQ3 = 2 * q3 * q3;
+        float q1q2 = 2 * q1 * q2;
+        float q3q0 = 2 * q3 * q0;
+        float q1q3 = 2 * q1 * q3;
+        float q2q0 = 2 * q2 * q0;
+        float q2q3 = 2 * q2 * q3;
+        float q1q0 = 2 * q1 * q0;
+
+        R[0] = 1 - sqQ2 - sqQ3;
+        R[1] = q1q2 - q3q0;
+        R[2] = q1q3 + q2q0;
+        R[3] = q1q2 + q3q0;
+        R[4] = 1 - sqQ1 - sqQ3;
+        R[5] = q2q3 - q1q0;
+        R[6] = q1q3 - q2q0;
+        R[7] = q2q3 + q1q0;
+        R[8] = 1 - sqQ1 - sqQ2;
+    }
+
+    /**
+     * Azimuth, pitch and roll in radians from a 3x3 rotation matrix
+     */
+    public static float[] getOrientation(float[] R, float[] values) {
+        values[0] = (float) Math.atan2(R[1], R[4]);
+        values[1] = (float) Math.asin(-R[7]);
+        values[2] = (float) Math.atan2(-R[6], R[8]);
+        return values;
+    }
+}
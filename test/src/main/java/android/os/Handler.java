@@ -0,0 +1,36 @@
+package android.os;
+
+/**
+ * JVM shim: posts runnables to a {@link Looper}.
+ */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        if (looper == null) {
+            throw new NullPointerException("looper");
+        }
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return looper.enqueue(this, r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return looper.enqueue(this, r, delayMillis);
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(this, r);
+    }
+
+    public final void removeCallbacksAndMessages(Object token) {
+        looper.remove(this, null);
+    }
+}
@@ -0,0 +1,65 @@
+package android.os;
+
+/**
+ * JVM shim: a thread running a {@link Looper}.
+ */
+public class HandlerThread extends Thread {
+
+    private Looper looper;
+
+    public HandlerThread(String name) {
+        super(name);
+    }
+
+    public HandlerThread(String name, int priority) {
+        super(name);
+    }
+
+    @Override
+    public void run() {
+        Looper.prepare();
+        synchronized (this) {
+            looper = Looper.myLooper();
+            notifyAll();
+        }
+        Looper.loop();
+    }
+
+    /**
+     * Blocks until the thread has started its looper
+     */
+    public Looper getLooper() {
+        if (!isAlive()) {
+            return null;
+        }
+        synchronized (this) {
+            while (isAlive() && looper == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+        return looper;
+    }
+
+    public boolean quit() {
+        Looper current = getLooper();
+        if (current == null) {
+            return false;
+        }
+        current.quit();
+        return true;
+    }
+
+    public boolean quitSafely() {
+        Looper current = getLooper();
+        if (current == null) {
+            return false;
+        }
+        current.quitSafely();
+        return true;
+    }
+}
@@ -0,0 +1,142 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM shim: a message loop running timed runnables in order on one thread, with the semantics
+ * the plugin relies on (post order, postDelayed, removeCallbacks, quitSafely).
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> CURRENT = new ThreadLocal<Looper>();
+
+    static final class Message implements Comparable<Message> {
+        final Handler target;
+        final Runnable callback;
+        final long whenNanos;
+        final long sequence;
+
+        Message(Handler target, Runnable callback, long whenNanos, long sequence) {
+            this.target = target;
+            this.callback = callback;
+            this.whenNanos = whenNanos;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (whenNanos != other.whenNanos) {
+                return whenNanos < other.whenNanos ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Message> queue = new PriorityQueue<Message>();
+    private final Thread thread;
+    private long sequence = 0;
+    private boolean quitting = false;
+    private boolean quitSafely = false;
+
+    private Looper(Thread thread) {
+        this.thread = thread;
+    }
+
+    public static void prepare() {
+        if (CURRENT.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        CURRENT.set(new Looper(Thread.currentThread()));
+    }
+
+    public static Looper myLooper() {
+        return CURRENT.get();
+    }
+
+    public static void loop() {
+        Looper looper = myLooper();
+        if (looper == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread");
+        }
+        while (true) {
+            Message message = looper.next();
+            if (message == null) {
+                return;
+            }
+            message.callback.run();
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void quit() {
+        synchronized (this) {
+            quitting = true;
+            quitSafely = false;
+            queue.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop once every message that is already due has run; delayed messages are dropped
+     */
+    public void quitSafely() {
+        synchronized (this) {
+            quitting = true;
+            quitSafely = true;
+            notifyAll();
+        }
+    }
+
+    synchronized boolean enqueue(Handler target, Runnable callback, long delayMillis) {
+        if (quitting) {
+            return false;
+        }
+        queue.add(new Message(target, callback, System.nanoTime() + Math.max(0, delayMillis) * 1000000L, sequence++));
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler target, Runnable callback) {
+        Iterator<Message> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.target == target && (callback == null || message.callback == callback)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized Message next() {
+        while (true) {
+            long now = System.nanoTime();
+            Message head = queue.peek();
+            if (head != null && head.whenNanos <= now) {
+                return queue.poll();
+            }
+            if (quitting && (!quitSafely || head == null || head.whenNanos > now)) {
+                queue.clear();
+                return null;
+            }
+            try {
+                if (head == null) {
+                    wait();
+                } else {
+                    long waitNanos = head.whenNanos - now;
+                    wait(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package android.os;
+
+/**
+ * JVM shim: thread priority constants only; priorities are not applied.
+ */
+public class Process {
+
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+    public static final int THREAD_PRIORITY_DISPLAY = -4;
+}
@@ -0,0 +1,15 @@
+package org.apache.cordova;
+
+import android.app.Activity;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * JVM shim: the activity and thread pool a plugin gets from the host.
+ */
+public interface CordovaInterface {
+
+    Activity getActivity();
+
+    ExecutorService getThreadPool();
+}
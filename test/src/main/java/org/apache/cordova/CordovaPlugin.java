@@ -0,0 +1,51 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * JVM shim of the plugin base class and its lifecycle entry points.
+ */
+public class CordovaPlugin {
+
+    public CordovaWebView webView;
+    public CordovaInterface cordova;
+    protected String serviceName;
+
+    /**
+     * Called by the host once after construction, as PluginManager does
+     */
+    public final void privateInitialize(String serviceName, CordovaInterface cordova, CordovaWebView webView) {
+        this.serviceName = serviceName;
+        this.cordova = cordova;
+        this.webView = webView;
+        initialize(cordova, webView);
+        pluginInitialize();
+    }
+
+    public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+    }
+
+    protected void pluginInitialize() {
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        return false;
+    }
+
+    public void onPause(boolean multitasking) {
+    }
+
+    public void onResume(boolean multitasking) {
+    }
+
+    public void onReset() {
+    }
+
+    public void onDestroy() {
+    }
+}
@@ -0,0 +1,9 @@
+package org.apache.cordova;
+
+/**
+ * JVM shim: where callback results end up.
+ */
+public interface CordovaWebView {
+
+    void sendPluginResult(PluginResult result, String callbackId);
+}
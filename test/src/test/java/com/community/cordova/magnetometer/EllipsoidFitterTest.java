@@ -0,0 +1,179 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EllipsoidFitterTest {
+
+    private static List<float[]> readFixture() throws Exception {
+        File file = new File(EllipsoidFitterTest.class.getResource(MagneticTraces.FIGURE_8_FIXTURE).toURI());
+        List<float[]> samples = new ArrayList<float[]>();
+        SensorRecording.Reader reader = new SensorRecording.Reader(file);
+        try {
+            SensorRecording.Event event = new SensorRecording.Event();
+            long previous = 0;
+            while (reader.next(event)) {
+                assertEquals(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED, event.sensorType);
+                assertTrue(event.timestampNanos > previous);
+                previous = event.timestampNanos;
+                samples.add(new float[]{event.values[0], event.values[1], event.values[2]});
+            }
+        } finally {
+            reader.close();
+        }
+        return samples;
+    }
+
+    private static EllipsoidFitter fit(List<float[]> samples) {
+        EllipsoidFitter fitter = new EllipsoidFitter();
+        for (float[] sample : samples) {
+            fitter.add(sample[0], sample[1], sample[2]);
+        }
+        return fitter;
+    }
+
+    private static void assertVector(float[] expected, float[] actual, float tolerance) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("component " + i, expected[i], actual[i], tolerance);
+        }
+    }
+
+    /** Relative spread (standard deviation / mean) of the corrected field strength */
+    private static double magnitudeSpread(List<float[]> samples, MagneticCalibration calibration) {
+        double sum = 0;
+        double sumSquares = 0;
+        float[] corrected = new float[3];
+        for (float[] sample : samples) {
+            calibration.apply(sample, corrected);
+            double magnitude = Math.sqrt(corrected[0] * corrected[0] + corrected[1] * corrected[1]
+                    + corrected[2] * corrected[2]);
+            sum += magnitude;
+            sumSquares += magnitude * magnitude;
+        }
+        double mean = sum / samples.size();
+        return Math.sqrt(sumSquares / samples.size() - mean * mean) / mean;
+    }
+
+    private static double determinant(float[] m) {
+        return m[0] * (m[4] * m[8] - m[5] * m[7])
+                - m[1] * (m[3] * m[8] - m[5] * m[6])
+                + m[2] * (m[3] * m[7] - m[4] * m[6]);
+    }
+
+    @Test
+    public void recoversHardAndSoftIronFromAFigure8() throws Exception {
+        List<float[]> samples = readFixture();
+        assertEquals(MagneticTraces.FIGURE_8_SAMPLES, samples.size());
+
+        EllipsoidFitter fitter = fit(samples);
+        assertTrue("coverage " + fitter.getCoverage(), fitter.getCoverage() >= EllipsoidFitter.MIN_ELLIPSOID_COVERAGE);
+        MagneticCalibration calibration = new MagneticCalibration();
+        assertTrue(fitter.solve(calibration));
+
+        assertTrue(calibration.softIron);
+        assertEquals(samples.size(), calibration.sampleCount);
+        assertVector(MagneticTraces.FIGURE_8_OFFSET, calibration.offset, 0.3f);
+
+        // The fitted matrix undoes the distortion up to a scale that keeps the volume:
+        // matrix * softIron = det(softIron)^(1/3) * identity
+        float[] softIron = MagneticTraces.FIGURE_8_SOFT_IRON;
+        double scale = Math.cbrt(determinant(softIron));
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                double product = 0;
+                for (int k = 0; k < 3; k++) {
+                    product += calibration.matrix[r * 3 + k] * softIron[k * 3 + c];
+                }
+                assertEquals("matrix * softIron [" + r + "][" + c + "]", r == c ? scale : 0, product, 0.01);
+            }
+        }
+        assertEquals(MagneticTraces.FIELD_STRENGTH * scale, calibration.fieldStrength, 0.5);
+        assertEquals(1, determinant(calibration.matrix) * determinant(softIron) / (scale * scale * scale), 0.01);
+
+        // The corrected field has the same strength in every orientation, up to the sensor noise
+        assertTrue(magnitudeSpread(samples, calibration) < 0.01);
+        assertTrue("fit error " + calibration.fitError, calibration.fitError < 0.02);
+    }
+
+    @Test
+    public void fitsTheFixtureIncrementallyAsSamplesArrive() throws Exception {
+        List<float[]> samples = readFixture();
+        EllipsoidFitter fitter = new EllipsoidFitter();
+        MagneticCalibration calibration = new MagneticCalibration();
+
+        for (int i = 0; i < EllipsoidFitter.MIN_SPHERE_SAMPLES - 1; i++) {
+            fitter.add(samples.get(i)[0], samples.get(i)[1], samples.get(i)[2]);
+        }
+        assertFalse(fitter.solve(calibration));
+
+        for (int i = EllipsoidFitter.MIN_SPHERE_SAMPLES - 1; i < samples.size(); i++) {
+            fitter.add(samples.get(i)[0], samples.get(i)[1], samples.get(i)[2]);
+        }
+        assertTrue(fitter.solve(calibration));
+        assertTrue(calibration.softIron);
+
+        fitter.reset();
+        assertEquals(0, fitter.getSampleCount());
+        assertFalse(fitter.solve(calibration));
+    }
+
+    @Test
+    public void fallsBackToASphereWithTooFewSamplesForAnEllipsoid() {
+        List<float[]> samples = MagneticTraces.generate(MagneticTraces.FIGURE_8,
+                EllipsoidFitter.MIN_ELLIPSOID_SAMPLES - 1, MagneticTraces.FIGURE_8_OFFSET, MagneticTraces.IDENTITY, 0.4, 1);
+
+        MagneticCalibration calibration = new MagneticCalibration();
+        assertTrue(fit(samples).solve(calibration));
+
+        assertFalse(calibration.softIron);
+        assertVector(MagneticTraces.IDENTITY, calibration.matrix, 0);
+        assertVector(MagneticTraces.FIGURE_8_OFFSET, calibration.offset, 0.5f);
+        assertEquals(MagneticTraces.FIELD_STRENGTH, calibration.fieldStrength, 0.5);
+        assertTrue(magnitudeSpread(samples, calibration) < 0.02);
+    }
+
+    @Test
+    public void fallsBackToASphereWhenTheDeviceBarelyTilts() {
+        List<float[]> samples = MagneticTraces.generate(MagneticTraces.NEARLY_FLAT_TURN, 600,
+                MagneticTraces.FIGURE_8_OFFSET, MagneticTraces.IDENTITY, 0.4, 2);
+
+        EllipsoidFitter fitter = fit(samples);
+        float coverage = fitter.getCoverage();
+        assertTrue("coverage " + coverage, coverage >= EllipsoidFitter.MIN_SPHERE_COVERAGE
+                && coverage < EllipsoidFitter.MIN_ELLIPSOID_COVERAGE);
+
+        MagneticCalibration calibration = new MagneticCalibration();
+        assertTrue(fitter.solve(calibration));
+        assertFalse(calibration.softIron);
+        assertVector(MagneticTraces.FIGURE_8_OFFSET, calibration.offset, 1f);
+    }
+
+    @Test
+    public void rejectsATurnFlatOnATable() {
+        List<float[]> samples = MagneticTraces.generate(MagneticTraces.FLAT_TURN, 600,
+                MagneticTraces.FIGURE_8_OFFSET, MagneticTraces.FIGURE_8_SOFT_IRON, 0.4, 3);
+
+        EllipsoidFitter fitter = fit(samples);
+        assertTrue("coverage " + fitter.getCoverage(), fitter.getCoverage() < EllipsoidFitter.MIN_SPHERE_COVERAGE);
+        assertFalse(fitter.solve(new MagneticCalibration()));
+    }
+
+    @Test
+    public void rejectsAStationaryDevice() {
+        EllipsoidFitter fitter = new EllipsoidFitter();
+        for (int i = 0; i < 500; i++) {
+            fitter.add(10, -20, 30);
+        }
+        assertEquals(0, fitter.getCoverage(), 0);
+        assertFalse(fitter.solve(new MagneticCalibration()));
+    }
+}
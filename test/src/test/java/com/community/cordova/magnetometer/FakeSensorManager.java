@@ -0,0 +1,170 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SensorManager with scripted sensors. Like the platform, an event reaches a listener only while it
+ * is registered for the sensor, and is delivered on the handler given at registration.
+ */
+class FakeSensorManager extends SensorManager {
+
+    static final class Registration {
+        final SensorEventListener listener;
+        final Sensor sensor;
+        final int samplingPeriodUs;
+        final int maxReportLatencyUs;
+        final Handler handler;
+
+        Registration(SensorEventListener listener, Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs,
+                     Handler handler) {
+            this.listener = listener;
+            this.sensor = sensor;
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+            this.handler = handler;
+        }
+    }
+
+    private final Map<Integer, Sensor> sensors = new HashMap<Integer, Sensor>();
+    private final List<Registration> registrations = new ArrayList<Registration>();
+    private int registerCalls = 0;
+
+    /**
+     * @param minDelayUs fastest sampling period the sensor supports
+     * @param maxDelayUs slowest sampling period the sensor supports, 0 if unspecified
+     */
+    synchronized FakeSensorManager addSensor(int type, int minDelayUs, int maxDelayUs) {
+        sensors.put(type, new Sensor(type, minDelayUs, maxDelayUs));
+        return this;
+    }
+
+    /** A phone with every sensor the plugin uses, sampling at up to 200 Hz */
+    static FakeSensorManager withAllSensors() {
+        return new FakeSensorManager()
+                .addSensor(Sensor.TYPE_MAGNETIC_FIELD, 5000, 1000000)
+                .addSensor(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED, 5000, 1000000)
+                .addSensor(Sensor.TYPE_ACCELEROMETER, 5000, 1000000)
+                .addSensor(Sensor.TYPE_ROTATION_VECTOR, 5000, 1000000)
+                .addSensor(Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR, 5000, 1000000);
+    }
+
+    @Override
+    public synchronized Sensor getDefaultSensor(int type) {
+        return sensors.get(type);
+    }
+
+    @Override
+    public synchronized boolean registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs,
+                                                 int maxReportLatencyUs, Handler handler) {
+        if (sensor == null || find(listener, sensor.getType()) != null) {
+            return false;
+        }
+        registrations.add(new Registration(listener, sensor, samplingPeriodUs, maxReportLatencyUs, handler));
+        registerCalls++;
+        return true;
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorEventListener listener, Sensor sensor) {
+        registrations.remove(find(listener, sensor.getType()));
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorEventListener listener) {
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            if (registrations.get(i).listener == listener) {
+                registrations.remove(i);
+            }
+        }
+    }
+
+    /** The registration for a sensor type, null if no listener is registered for it */
+    synchronized Registration getRegistration(int type) {
+        // Indexed loops here and in find(): an iterator would count against the plugin's allocation budgets
+        for (int i = 0; i < registrations.size(); i++) {
+            if (registrations.get(i).sensor.getType() == type) {
+                return registrations.get(i);
+            }
+        }
+        return null;
+    }
+
+    synchronized boolean isRegistered(int type) {
+        return getRegistration(type) != null;
+    }
+
+    /** Number of successful registerListener calls, for every sensor */
+    synchronized int getRegisterCalls() {
+        return registerCalls;
+    }
+
+    /**
+     * Post an event to the registered listener's handler, as the platform does.
+     * @return false if no listener is registered for the sensor
+     */
+    boolean post(int type, long timestampNanos, float... values) {
+        final Registration registration = getRegistration(type);
+        if (registration == null) {
+            return false;
+        }
+        final SensorEvent event = createEvent(type, values.length);
+        System.arraycopy(values, 0, event.values, 0, values.length);
+        event.timestamp = timestampNanos;
+        return registration.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(registration, event);
+            }
+        });
+    }
+
+    /**
+     * Deliver an event on the calling thread, which must be the registered handler's thread.
+     * Lets a test reuse one event object so that only the plugin's own allocations are measured.
+     * @return false if no listener is registered for the sensor
+     */
+    boolean deliver(SensorEvent event) {
+        Registration registration = getRegistration(event.sensor.getType());
+        if (registration == null) {
+            return false;
+        }
+        dispatch(registration, event);
+        return true;
+    }
+
+    SensorEvent createEvent(int type, int valueSize) {
+        SensorEvent event = new SensorEvent(valueSize);
+        event.sensor = getDefaultSensor(type);
+        event.accuracy = SENSOR_STATUS_ACCURACY_HIGH;
+        return event;
+    }
+
+    private void dispatch(Registration registration, SensorEvent event) {
+        // Like the platform, drop events that were queued before the listener went away
+        synchronized (this) {
+            if (!registrations.contains(registration)) {
+                return;
+            }
+        }
+        registration.listener.onSensorChanged(event);
+    }
+
+    private Registration find(SensorEventListener listener, int type) {
+        for (int i = 0; i < registrations.size(); i++) {
+            Registration registration = registrations.get(i);
+            if (registration.listener == listener && registration.sensor.getType() == type) {
+                return registration;
+            }
+        }
+        return null;
+    }
+}
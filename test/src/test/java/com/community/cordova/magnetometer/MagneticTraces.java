@@ -0,0 +1,149 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Magnetometer samples of a device moved through known orientations in a known field, distorted
+ * by a known hard-iron offset and soft-iron matrix: raw = softIron * field + offset + noise.
+ *
+ * {@link #main} writes the figure-8 fixture in src/test/resources as a sensor recording, so the
+ * fitter tests read the same file format the plugin records on a device.
+ */
+final class MagneticTraces {
+
+    static final String FIGURE_8_FIXTURE = "/figure8-uncalibrated.rec";
+    static final float[] FIGURE_8_OFFSET = {10, -20, 30};
+    // Symmetric and anisotropic: axes scaled by 0.85-1.15 and sheared
+    static final float[] FIGURE_8_SOFT_IRON = {
+            1.12f, 0.06f, -0.04f,
+            0.06f, 0.88f, 0.05f,
+            -0.04f, 0.05f, 1.02f};
+    static final int FIGURE_8_SAMPLES = 1200;
+    static final long FIGURE_8_PERIOD_NANOS = 20000000L;
+
+    // 48 uT with an inclination of 60 degrees, in east, north, up coordinates
+    static final float FIELD_STRENGTH = 48;
+    private static final double[] WORLD_FIELD = {
+            0, FIELD_STRENGTH * Math.cos(Math.toRadians(60)), -FIELD_STRENGTH * Math.sin(Math.toRadians(60))};
+
+    static final float[] IDENTITY = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+    private MagneticTraces() {
+    }
+
+    /** Device orientation at one point of a motion, in radians */
+    interface Motion {
+        void orientation(double phase, double[] yawPitchRoll);
+    }
+
+    /**
+     * Waving the phone in a figure 8 while turning around twice: pitch and roll trace a
+     * 2:1 Lissajous figure three times, so every axis points up and down at some point.
+     */
+    static final Motion FIGURE_8 = new Motion() {
+        @Override
+        public void orientation(double phase, double[] yawPitchRoll) {
+            yawPitchRoll[0] = 2 * Math.PI * 2 * phase;
+            yawPitchRoll[1] = 1.3 * Math.sin(2 * Math.PI * 6 * phase);
+            yawPitchRoll[2] = 1.5 * Math.sin(2 * Math.PI * 3 * phase);
+        }
+    };
+
+    /** Turning around with the phone tilted no more than 20 degrees */
+    static final Motion NEARLY_FLAT_TURN = new Motion() {
+        @Override
+        public void orientation(double phase, double[] yawPitchRoll) {
+            yawPitchRoll[0] = 2 * Math.PI * 2 * phase;
+            yawPitchRoll[1] = Math.toRadians(20) * Math.sin(2 * Math.PI * 5 * phase);
+            yawPitchRoll[2] = Math.toRadians(20) * Math.cos(2 * Math.PI * 3 * phase);
+        }
+    };
+
+    /** Turning around flat on a table */
+    static final Motion FLAT_TURN = new Motion() {
+        @Override
+        public void orientation(double phase, double[] yawPitchRoll) {
+            yawPitchRoll[0] = 2 * Math.PI * phase;
+            yawPitchRoll[1] = 0;
+            yawPitchRoll[2] = 0;
+        }
+    };
+
+    /**
+     * @param softIron row-major 3x3 applied to the true field before the offset is added
+     * @param noise standard deviation of the sensor noise in microteslas
+     * @return count raw x/y/z samples evenly spread over the motion
+     */
+    static List<float[]> generate(Motion motion, int count, float[] offset, float[] softIron, double noise, long seed) {
+        Random random = new Random(seed);
+        double[] angles = new double[3];
+        double[] rotation = new double[9];
+        List<float[]> samples = new ArrayList<float[]>(count);
+        for (int n = 0; n < count; n++) {
+            motion.orientation((double) n / count, angles);
+            deviceToWorld(angles[0], angles[1], angles[2], rotation);
+
+            // The device sees the world field rotated by the inverse (transpose) of its orientation
+            double[] field = new double[3];
+            for (int i = 0; i < 3; i++) {
+                field[i] = rotation[i] * WORLD_FIELD[0] + rotation[3 + i] * WORLD_FIELD[1] + rotation[6 + i] * WORLD_FIELD[2];
+            }
+            float[] raw = new float[3];
+            for (int i = 0; i < 3; i++) {
+                double distorted = softIron[i * 3] * field[0] + softIron[i * 3 + 1] * field[1] + softIron[i * 3 + 2] * field[2];
+                raw[i] = (float) (distorted + offset[i] + noise * random.nextGaussian());
+            }
+            samples.add(raw);
+        }
+        return samples;
+    }
+
+    /** Rotation matrix, row-major, from the device frame to east, north, up: Rz(yaw) Rx(pitch) Ry(roll) */
+    private static void deviceToWorld(double yaw, double pitch, double roll, double[] out) {
+        double cy = Math.cos(yaw), sy = Math.sin(yaw);
+        double cp = Math.cos(pitch), sp = Math.sin(pitch);
+        double cr = Math.cos(roll), sr = Math.sin(roll);
+        double[] z = {cy, -sy, 0, sy, cy, 0, 0, 0, 1};
+        double[] x = {1, 0, 0, 0, cp, -sp, 0, sp, cp};
+        double[] y = {cr, 0, sr, 0, 1, 0, -sr, 0, cr};
+        double[] zx = new double[9];
+        multiply(z, x, zx);
+        multiply(zx, y, out);
+    }
+
+    private static void multiply(double[] a, double[] b, double[] out) {
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                out[r * 3 + c] = a[r * 3] * b[c] + a[r * 3 + 1] * b[3 + c] + a[r * 3 + 2] * b[6 + c];
+            }
+        }
+    }
+
+    /**
+     * Regenerate the figure-8 fixture: TYPE_MAGNETIC_FIELD_UNCALIBRATED events at 50 Hz, with the
+     * system's bias estimate left at zero as on a device that has not calibrated yet
+     */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args.length > 0 ? args[0] : "src/test/resources" + FIGURE_8_FIXTURE);
+        List<float[]> samples = generate(FIGURE_8, FIGURE_8_SAMPLES, FIGURE_8_OFFSET, FIGURE_8_SOFT_IRON, 0.4, 8);
+        SensorRecording.Writer writer = new SensorRecording.Writer(file);
+        try {
+            long timestamp = 1000000000L;
+            for (float[] raw : samples) {
+                writer.writeSample(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED, SensorManager.SENSOR_STATUS_ACCURACY_LOW,
+                        timestamp, new float[]{raw[0], raw[1], raw[2], 0, 0, 0});
+                timestamp += FIGURE_8_PERIOD_NANOS;
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.println("Wrote " + samples.size() + " samples to " + file);
+    }
+}
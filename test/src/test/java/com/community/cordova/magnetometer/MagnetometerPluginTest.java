@@ -0,0 +1,489 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+import android.os.SystemClock;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the plugin through execute() and the lifecycle callbacks, with sensor events from a
+ * {@link FakeSensorManager}, and checks what reaches the callbacks: how many payloads, in what
+ * order, on which thread, and when.
+ */
+public class MagnetometerPluginTest {
+
+    private static final int MAG = Sensor.TYPE_MAGNETIC_FIELD;
+    private static final int ACCEL = Sensor.TYPE_ACCELEROMETER;
+    private static final long MS = 1000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeSensorManager sensors;
+    private PluginHarness harness;
+
+    @Before
+    public void setUp() throws Exception {
+        sensors = FakeSensorManager.withAllSensors();
+        harness = new PluginHarness(sensors, folder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        harness.destroy();
+    }
+
+    /**
+     * Post count magnetometer events periodMs apart, the last one timestamped now, and wait
+     * until the sensor thread has handled them
+     * @return timestamp of the first event
+     */
+    private long emitField(int count, long periodMs, float x, float y, float z) throws InterruptedException {
+        long first = SystemClock.elapsedRealtimeNanos() - (count - 1) * periodMs * MS;
+        for (int i = 0; i < count; i++) {
+            assertTrue("magnetometer not registered", sensors.post(MAG, first + i * periodMs * MS, x, y, z));
+        }
+        harness.awaitIdle();
+        return first;
+    }
+
+    private static JSONObject options(Object... keyValues) throws JSONException {
+        JSONObject options = new JSONObject();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            options.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return options;
+    }
+
+    @Test
+    public void watchReadingsDeliversAtTheRequestedRateOnTheSensorThread() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20, options());
+        harness.awaitIdle();
+
+        List<RecordingCallback.Result> results = watch.results();
+        assertEquals(PluginResult.Status.NO_RESULT.ordinal(), results.get(0).pluginResult.getStatus());
+        assertTrue(results.get(0).pluginResult.getKeepCallback());
+        assertEquals(20000, sensors.getRegistration(MAG).samplingPeriodUs);
+
+        // The sensor runs at 200 Hz, faster than registered, as many devices do
+        long first = emitField(500, 5, 10, 20, 30);
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(125, payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            RecordingCallback.Result result = payloads.get(i);
+            assertEquals(PluginHarness.SENSOR_THREAD_NAME, result.threadName);
+            assertTrue(result.pluginResult.getKeepCallback());
+
+            JSONObject reading = result.json();
+            assertEquals(10, reading.getDouble("x"), 1e-6);
+            assertEquals(20, reading.getDouble("y"), 1e-6);
+            assertEquals(30, reading.getDouble("z"), 1e-6);
+            assertEquals(first + i * 20 * MS, reading.getLong("timestampNanos"));
+        }
+    }
+
+    @Test
+    public void stopWatchUnregistersTheSensor() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20, options("id", "compass"));
+        harness.awaitIdle();
+        assertTrue(sensors.isRegistered(MAG));
+
+        RecordingCallback stop = harness.execute("stopWatch", "compass");
+        assertTrue(stop.awaitPayload(1000).isOk());
+        assertFalse(sensors.isRegistered(MAG));
+        assertFalse(sensors.post(MAG, SystemClock.elapsedRealtimeNanos(), 1, 2, 3));
+        assertEquals(0, watch.payloads().size());
+    }
+
+    @Test
+    public void watchesShareOneRegistrationAtTheFastestPeriod() throws Exception {
+        RecordingCallback slow = harness.execute("watchReadings", 100, options("id", "slow"));
+        RecordingCallback fast = harness.execute("watchReadings", 20, options("id", "fast"));
+        harness.awaitIdle();
+        assertEquals(20000, sensors.getRegistration(MAG).samplingPeriodUs);
+
+        emitField(200, 5, 10, 20, 30);
+        assertEquals(10, slow.payloads().size());
+        assertEquals(50, fast.payloads().size());
+
+        harness.execute("stopWatch", "fast").awaitPayload(1000);
+        assertEquals(100000, sensors.getRegistration(MAG).samplingPeriodUs);
+    }
+
+    @Test
+    public void accelMagHeadingIsEmittedOncePerMagnetometerSample() throws Exception {
+        RecordingCallback watch = harness.execute("watchHeading", 20, 0, options("source", "accelMag"));
+        harness.awaitIdle();
+        assertEquals(20000, sensors.getRegistration(MAG).samplingPeriodUs);
+        assertEquals(20000, sensors.getRegistration(ACCEL).samplingPeriodUs);
+
+        // One second of the device turning a full circle, flat on a table
+        long first = SystemClock.elapsedRealtimeNanos() - 49 * 20 * MS;
+        for (int i = 0; i < 50; i++) {
+            long timestamp = first + i * 20 * MS;
+            double angle = Math.toRadians(i * 7.2);
+            sensors.post(ACCEL, timestamp, 0, 0, 9.81f);
+            sensors.post(MAG, timestamp, (float) (20 * Math.sin(angle)), (float) (20 * Math.cos(angle)), -40);
+        }
+        harness.awaitIdle();
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(50, payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            JSONObject heading = payloads.get(i).json();
+            assertEquals(first + i * 20 * MS, heading.getLong("timestampNanos"));
+            double expected = (360 - i * 7.2) % 360;
+            double error = Math.abs(heading.getDouble("magneticHeading") - expected);
+            assertTrue("heading " + i + " was " + heading.getDouble("magneticHeading") + ", expected " + expected,
+                    Math.min(error, 360 - error) < 0.01);
+        }
+    }
+
+    @Test
+    public void unknownHeadingSourceIsRejected() throws Exception {
+        RecordingCallback watch = harness.execute("watchHeading", 20, 0, options("source", "accelmag"));
+        RecordingCallback.Result result = watch.awaitPayload(1000);
+        assertTrue(result.isError());
+        assertEquals("Unknown heading source 'accelmag'", result.errorMessage());
+        assertFalse(sensors.isRegistered(MAG));
+    }
+
+    @Test
+    public void motionLeavesOrientationOutInFreeFall() throws Exception {
+        RecordingCallback watch = harness.execute("watchMotion", 20, options("id", "motion"));
+        harness.awaitIdle();
+
+        long first = SystemClock.elapsedRealtimeNanos() - 20 * MS;
+        sensors.post(ACCEL, first, 0, 0, 9.81f);
+        sensors.post(MAG, first, 0, 20, -40);
+        // Free fall: no gravity vector to orient the device by
+        sensors.post(ACCEL, first + 20 * MS, 0, 0, 0.1f);
+        sensors.post(MAG, first + 20 * MS, 20, 0, -40);
+        harness.awaitIdle();
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(2, payloads.size());
+        JSONObject level = payloads.get(0).json();
+        assertEquals(0, level.getDouble("magneticHeading"), 0.01);
+        assertEquals(0, level.getDouble("pitch"), 0.01);
+        JSONObject falling = payloads.get(1).json();
+        assertEquals(20, falling.getDouble("x"), 1e-6);
+        assertFalse(falling.has("magneticHeading"));
+        assertFalse(falling.has("trueHeading"));
+        assertFalse(falling.has("pitch"));
+        assertFalse(falling.has("roll"));
+    }
+
+    @Test
+    public void nearbyLocationReportsTheLocationJustSet() throws Exception {
+        JSONObject first = harness.execute("setLocation", 52.0, 4.0, 0.0).awaitPayload(1000).json();
+
+        // About 1 km away: the cached declination is reused
+        JSONObject second = harness.execute("setLocation", 52.01, 4.0, 100.0).awaitPayload(1000).json();
+        assertEquals(52.01, second.getDouble("latitude"), 1e-9);
+        assertEquals(100.0, second.getDouble("altitude"), 1e-9);
+        assertEquals(first.getDouble("declination"), second.getDouble("declination"), 0);
+        assertEquals(first.getLong("timestamp"), second.getLong("timestamp"));
+    }
+
+    @Test
+    public void oneShotTimesOutAfterOneSecondAndReleasesTheSensor() throws Exception {
+        long start = System.nanoTime();
+        RecordingCallback reading = harness.execute("getReading", options());
+        harness.awaitIdle();
+        assertEquals(66667, sensors.getRegistration(MAG).samplingPeriodUs);
+
+        RecordingCallback.Result result = reading.awaitPayload(5000);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(result.sentNanos - start);
+        assertTrue(result.isError());
+        assertEquals("Timeout waiting for magnetometer reading", result.errorMessage());
+        assertTrue("timed out after " + elapsedMs + " ms", elapsedMs >= 1000 && elapsedMs < 2000);
+        assertEquals(PluginHarness.SENSOR_THREAD_NAME, result.threadName);
+
+        harness.awaitIdle();
+        assertFalse(sensors.isRegistered(MAG));
+    }
+
+    @Test
+    public void concurrentOneShotsShareOneRegistration() throws Exception {
+        RecordingCallback[] readings = new RecordingCallback[3];
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = harness.execute("getReading", options());
+        }
+        harness.awaitIdle();
+        assertEquals(1, sensors.getRegisterCalls());
+
+        emitField(1, 5, 10, 20, 30);
+        for (RecordingCallback reading : readings) {
+            RecordingCallback.Result result = reading.awaitPayload(1000);
+            assertTrue(result.isOk());
+            assertFalse(result.pluginResult.getKeepCallback());
+            assertEquals(20, result.json().getDouble("y"), 1e-6);
+        }
+        assertFalse(sensors.isRegistered(MAG));
+    }
+
+    @Test
+    public void oneShotIsAnsweredFromTheCacheOfARunningWatch() throws Exception {
+        harness.execute("watchReadings", 20, options());
+        harness.awaitIdle();
+        long first = emitField(50, 5, 10, 20, 30);
+        int registerCalls = sensors.getRegisterCalls();
+
+        RecordingCallback reading = harness.execute("getReading", options("maxAgeMs", 1000));
+        JSONObject result = reading.awaitPayload(500).json();
+        assertEquals(first + 49 * 5 * MS, result.getLong("timestampNanos"));
+        assertEquals(registerCalls, sensors.getRegisterCalls());
+        assertEquals(20000, sensors.getRegistration(MAG).samplingPeriodUs);
+    }
+
+    @Test
+    public void watchIdUsedByAnotherKindOfWatchIsRejected() throws Exception {
+        RecordingCallback readings = harness.execute("watchReadings", 20, options("id", "shared"));
+        RecordingCallback heading = harness.execute("watchHeading", 20, 0, options("id", "shared"));
+
+        RecordingCallback.Result rejected = heading.awaitPayload(1000);
+        assertTrue(rejected.isError());
+        assertEquals("Watch ID 'shared' is in use by a readings watch", rejected.errorMessage());
+
+        emitField(10, 20, 10, 20, 30);
+        assertEquals(10, readings.payloads().size());
+    }
+
+    @Test
+    public void flowControlHoldsSamplesBackUntilAcknowledged() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20,
+                options("id", "slowConsumer", "maxInFlight", 1, "deliveryPolicy", "latest"));
+        harness.awaitIdle();
+        long first = emitField(100, 5, 10, 20, 30);
+        assertEquals(1, watch.payloads().size());
+
+        harness.execute("ackWatch", "slowConsumer", 1);
+        harness.awaitIdle();
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(2, payloads.size());
+        assertEquals(first, payloads.get(0).json().getLong("timestampNanos"));
+        // Only the newest held-back sample is kept
+        assertEquals(first + 480 * MS, payloads.get(1).json().getLong("timestampNanos"));
+
+        JSONObject metrics = harness.execute("getMetrics").awaitPayload(1000).json();
+        assertEquals(23, metrics.getJSONObject("watches").getJSONObject("readings").getLong("dropped"));
+    }
+
+    @Test
+    public void batchedReadingsArriveAsOnePackedArrayPerBatch() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20,
+                options("batchSize", 10, "maxLatencyMs", 500));
+        harness.awaitIdle();
+        assertEquals(500000, sensors.getRegistration(MAG).maxReportLatencyUs);
+
+        long first = emitField(200, 5, 10, 20, 30);
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(5, payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            JSONArray packed = payloads.get(i).jsonArray();
+            assertEquals(10 * 5, packed.length());
+            for (int j = 0; j < 10; j++) {
+                assertEquals(first + (i * 10 + j) * 20 * MS, packed.getLong(j * 5 + 4));
+            }
+        }
+    }
+
+    @Test
+    public void binaryReadingsAreFixedSizeRecords() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20, options("format", "binary"));
+        harness.awaitIdle();
+        long first = emitField(20, 5, 10, 20, 30);
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(5, payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(PluginResult.MESSAGE_TYPE_ARRAYBUFFER, payloads.get(i).pluginResult.getMessageType());
+            ByteBuffer record = ByteBuffer.wrap(payloads.get(i).bytes()).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(BinarySampleWriter.RECORD_SIZE, record.remaining());
+            assertEquals(10, record.getFloat(0), 0);
+            assertEquals(20, record.getFloat(4), 0);
+            assertEquals(30, record.getFloat(8), 0);
+            assertEquals(first + i * 20 * MS, record.getLong(20));
+        }
+    }
+
+    @Test
+    public void pauseUnregistersAndResumeSeedsFromTheCache() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20, options());
+        harness.awaitIdle();
+        long first = emitField(10, 20, 10, 20, 30);
+        assertEquals(10, watch.payloads().size());
+
+        harness.plugin.onPause(false);
+        harness.awaitIdle();
+        assertFalse(sensors.isRegistered(MAG));
+
+        harness.plugin.onResume(false);
+        harness.awaitIdle();
+        assertTrue(sensors.isRegistered(MAG));
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(11, payloads.size());
+        assertEquals(first + 9 * 20 * MS, payloads.get(10).json().getLong("timestampNanos"));
+    }
+
+    @Test
+    public void resumedHeadingWatchSendsTheCachedHeadingInsideTheDeadband() throws Exception {
+        RecordingCallback watch = harness.execute("watchHeading", 20, 10, options("source", "accelMag"));
+        harness.awaitIdle();
+        long timestamp = SystemClock.elapsedRealtimeNanos();
+        sensors.post(ACCEL, timestamp, 0, 0, 9.81f);
+        sensors.post(MAG, timestamp, 0, 20, -40);
+        harness.awaitIdle();
+        assertEquals(1, watch.payloads().size());
+
+        harness.plugin.onPause(false);
+        harness.awaitIdle();
+        harness.plugin.onResume(false);
+        harness.awaitIdle();
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(2, payloads.size());
+        assertEquals(timestamp, payloads.get(1).json().getLong("timestampNanos"));
+    }
+
+    @Test
+    public void recordedTraceReplaysThroughTheSamePipeline() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20, options());
+        String path = new File(folder.getRoot(), "trace.rec").getAbsolutePath();
+        assertTrue(harness.execute("startRecording", path).awaitPayload(1000).isOk());
+        long first = emitField(500, 5, 10, 20, 30);
+        JSONObject recording = harness.execute("stopRecording").awaitPayload(1000).json();
+        assertEquals(500, recording.getLong("eventCount"));
+        assertEquals(125, watch.payloads().size());
+
+        RecordingCallback replay = harness.execute("startReplay", options("path", path, "speed", "max"));
+        JSONObject replayed = replay.awaitPayload(5000).json();
+        assertEquals(500, replayed.getLong("eventCount"));
+        assertTrue(replayed.getBoolean("completed"));
+
+        // The replayed samples take the device's place, then the device sensor is registered again.
+        // Replay shifts the trace to start when playback starts, keeping the recorded spacing.
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(250, payloads.size());
+        long replayFirst = payloads.get(125).json().getLong("timestampNanos");
+        assertTrue(replayFirst > first + 499 * 5 * MS);
+        for (int i = 0; i < 125; i++) {
+            assertEquals(replayFirst + i * 20 * MS, payloads.get(125 + i).json().getLong("timestampNanos"));
+            assertEquals(PluginHarness.SENSOR_THREAD_NAME, payloads.get(125 + i).threadName);
+        }
+        assertEquals(20000, sensors.getRegistration(MAG).samplingPeriodUs);
+    }
+
+    @Test
+    public void realtimeReplayKeepsTheRecordedPace() throws Exception {
+        RecordingCallback watch = harness.execute("watchReadings", 20, options());
+        String path = new File(folder.getRoot(), "trace.rec").getAbsolutePath();
+        harness.execute("startRecording", path).awaitPayload(1000);
+        emitField(100, 5, 10, 20, 30);
+        harness.execute("stopRecording").awaitPayload(1000);
+
+        long start = System.nanoTime();
+        RecordingCallback replay = harness.execute("startReplay", options("path", path, "speed", "realtime"));
+        RecordingCallback.Result result = replay.awaitPayload(5000);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(result.sentNanos - start);
+
+        assertTrue(result.json().getBoolean("completed"));
+        assertEquals(50, watch.payloads().size());
+        // 100 events 5 ms apart span 495 ms
+        assertTrue("replay took " + elapsedMs + " ms", elapsedMs >= 450 && elapsedMs < 1500);
+    }
+
+    @Test
+    public void calibrationFittedOnAReplayedFigure8CorrectsRawReadings() throws Exception {
+        RecordingCallback calibration = harness.execute("startCalibration", options("durationMs", 1000));
+        String path = new File(getClass().getResource(MagneticTraces.FIGURE_8_FIXTURE).toURI()).getAbsolutePath();
+        JSONObject replayed = harness.execute("startReplay", options("path", path, "speed", "max"))
+                .awaitPayload(5000).json();
+        assertEquals(MagneticTraces.FIGURE_8_SAMPLES, replayed.getLong("eventCount"));
+
+        RecordingCallback.Result result = calibration.awaitPayloads(1, 5000).get(0);
+        while (!result.json().optString("status").equals("complete")) {
+            List<RecordingCallback.Result> payloads = calibration.awaitPayloads(calibration.payloads().size() + 1, 5000);
+            result = payloads.get(payloads.size() - 1);
+        }
+        JSONObject fitted = result.json();
+        assertEquals("uncalibrated", fitted.getString("frame"));
+        assertTrue(fitted.getBoolean("softIron"));
+        JSONArray offset = fitted.getJSONArray("offset");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(MagneticTraces.FIGURE_8_OFFSET[i], offset.getDouble(i), 0.3);
+        }
+
+        // Readings now come from the uncalibrated magnetometer, corrected by the fitted calibration
+        RecordingCallback watch = harness.execute("watchReadings", 20, options());
+        harness.awaitIdle();
+        assertTrue(sensors.isRegistered(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED));
+        List<float[]> raw = MagneticTraces.generate(MagneticTraces.FIGURE_8, 50, MagneticTraces.FIGURE_8_OFFSET,
+                MagneticTraces.FIGURE_8_SOFT_IRON, 0, 4);
+        long first = SystemClock.elapsedRealtimeNanos() - 49 * 20 * MS;
+        for (int i = 0; i < raw.size(); i++) {
+            float[] sample = raw.get(i);
+            sensors.post(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED, first + i * 20 * MS,
+                    sample[0], sample[1], sample[2], 0, 0, 0);
+        }
+        harness.awaitIdle();
+
+        List<RecordingCallback.Result> payloads = watch.payloads();
+        assertEquals(50, payloads.size());
+        double fieldStrength = fitted.getDouble("fieldStrength");
+        for (RecordingCallback.Result payload : payloads) {
+            assertEquals(fieldStrength, payload.json().getDouble("magnitude"), fieldStrength * 0.01);
+        }
+    }
+
+    @Test
+    public void destroyUnregistersEverySensorAndStopsTheThread() throws Exception {
+        harness.execute("watchReadings", 20, options());
+        harness.execute("watchHeading", 20, 0, options("source", "accelMag"));
+        harness.execute("getReading", options());
+        harness.awaitIdle();
+        assertNotNull(sensors.getRegistration(MAG));
+
+        harness.destroy();
+        assertFalse(sensors.isRegistered(MAG));
+        assertFalse(sensors.isRegistered(ACCEL));
+        harness = new PluginHarness(sensors, folder.getRoot());
+    }
+
+    @Test
+    public void metricsCountWhatTheSensorsSentAndWhatWasDelivered() throws Exception {
+        harness.execute("watchReadings", 20, options());
+        harness.awaitIdle();
+        emitField(500, 5, 10, 20, 30);
+
+        JSONObject metrics = harness.execute("getMetrics").awaitPayload(1000).json();
+        JSONObject sensor = metrics.getJSONObject("sensors").getJSONObject(String.valueOf(MAG));
+        assertEquals(500, sensor.getLong("received"));
+        assertEquals(375, sensor.getLong("decimated"));
+        JSONObject readings = metrics.getJSONObject("watches").getJSONObject("readings");
+        assertEquals(125, readings.getLong("delivered"));
+        assertEquals(125, readings.getJSONObject("bridgeLatency").getLong("count"));
+    }
+}
@@ -0,0 +1,267 @@
+package com.community.cordova.magnetometer;
+
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts a Magnetometer plugin the way Cordova does, on top of a {@link FakeSensorManager}:
+ * an activity with in-memory preferences and a files directory, a thread pool, and calls
+ * through {@link org.apache.cordova.CordovaPlugin#execute}.
+ */
+class PluginHarness {
+
+    static final String SENSOR_THREAD_NAME = "MagnetometerSensors";
+
+    private static final AtomicInteger callbackIds = new AtomicInteger();
+
+    final FakeSensorManager sensorManager;
+    final Magnetometer plugin = new Magnetometer();
+    final File filesDir;
+    private final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private final HandlerThread sensorThread;
+    private final Handler sensorHandler;
+
+    PluginHarness(final FakeSensorManager sensorManager, final File filesDir) {
+        this.sensorManager = sensorManager;
+        this.filesDir = filesDir;
+
+        final Activity activity = new Activity() {
+            private final Map<String, SharedPreferences> preferences = new HashMap<String, SharedPreferences>();
+
+            @Override
+            public Object getSystemService(String name) {
+                return SENSOR_SERVICE.equals(name) ? sensorManager : null;
+            }
+
+            @Override
+            public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+                SharedPreferences shared = preferences.get(name);
+                if (shared == null) {
+                    shared = new MemoryPreferences();
+                    preferences.put(name, shared);
+                }
+                return shared;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return filesDir;
+            }
+        };
+        CordovaInterface cordova = new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        };
+        CordovaWebView webView = new CordovaWebView() {
+            @Override
+            public void sendPluginResult(PluginResult result, String callbackId) {
+            }
+        };
+
+        plugin.privateInitialize("Magnetometer", cordova, webView);
+        sensorThread = findSensorThread();
+        sensorHandler = new Handler(sensorThread.getLooper());
+    }
+
+    /**
+     * Call a plugin action with the given arguments, as JS would
+     * @return the callback receiving the action's results
+     */
+    RecordingCallback execute(String action, Object... args) throws JSONException {
+        RecordingCallback callback = new RecordingCallback(action + callbackIds.incrementAndGet());
+        execute(callback, action, args);
+        return callback;
+    }
+
+    /**
+     * Call a plugin action with a callback of the test's own, e.g. one that keeps nothing
+     */
+    void execute(CallbackContext callback, String action, Object... args) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Object arg : args) {
+            array.put(arg);
+        }
+        if (!plugin.execute(action, array, callback)) {
+            throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    /** The plugin's sensor thread, which runs every sensor and watch callback */
+    HandlerThread getSensorThread() {
+        return sensorThread;
+    }
+
+    /**
+     * Wait until the sensor thread has processed everything posted to it so far,
+     * including posted sensor events
+     */
+    void awaitIdle() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new AssertionError("Sensor thread did not become idle");
+        }
+    }
+
+    /**
+     * Run a task on the sensor thread and wait for it, rethrowing what it throws
+     */
+    void runOnSensorThread(final Runnable task) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        if (!latch.await(60, TimeUnit.SECONDS)) {
+            throw new AssertionError("Task on the sensor thread did not finish");
+        }
+        if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException) failure[0];
+        }
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        }
+    }
+
+    /**
+     * Destroy the plugin as Cordova does and wait for its sensor thread to finish
+     */
+    void destroy() throws InterruptedException {
+        plugin.onDestroy();
+        sensorThread.join(5000);
+        threadPool.shutdownNow();
+        if (sensorThread.isAlive()) {
+            throw new AssertionError("Sensor thread still running after onDestroy");
+        }
+    }
+
+    private static HandlerThread findSensorThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread instanceof HandlerThread && SENSOR_THREAD_NAME.equals(thread.getName()) && thread.isAlive()) {
+                return (HandlerThread) thread;
+            }
+        }
+        throw new AssertionError("No " + SENSOR_THREAD_NAME + " thread after pluginInitialize");
+    }
+
+    private static final class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            Object value = values.get(key);
+            return value != null ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            Object value = values.get(key);
+            return value != null ? (Float) value : defValue;
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            Object value = values.get(key);
+            return value != null ? (Integer) value : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return value != null ? (Long) value : defValue;
+        }
+
+        @Override
+        public Editor edit() {
+            return new Editor() {
+                private final Map<String, Object> changes = new HashMap<String, Object>();
+                private boolean clear = false;
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putLong(String key, long value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor clear() {
+                    clear = true;
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+
+                @Override
+                public boolean commit() {
+                    synchronized (MemoryPreferences.this) {
+                        if (clear) {
+                            values.clear();
+                        }
+                        values.putAll(changes);
+                    }
+                    return true;
+                }
+            };
+        }
+    }
+}
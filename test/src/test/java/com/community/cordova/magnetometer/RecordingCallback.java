@@ -0,0 +1,127 @@
+package com.community.cordova.magnetometer;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CallbackContext that records every result the plugin sends, with the thread it was sent
+ * from and when, so tests can wait for payloads and check them.
+ */
+class RecordingCallback extends CallbackContext {
+
+    static final class Result {
+        final PluginResult pluginResult;
+        final String threadName;
+        final long sentNanos;
+
+        Result(PluginResult pluginResult, String threadName, long sentNanos) {
+            this.pluginResult = pluginResult;
+            this.threadName = threadName;
+            this.sentNanos = sentNanos;
+        }
+
+        boolean isOk() {
+            return pluginResult.getStatus() == PluginResult.Status.OK.ordinal();
+        }
+
+        boolean isError() {
+            return pluginResult.getStatus() == PluginResult.Status.ERROR.ordinal();
+        }
+
+        JSONObject json() throws JSONException {
+            return new JSONObject(pluginResult.getMessage());
+        }
+
+        JSONArray jsonArray() throws JSONException {
+            return new JSONArray(pluginResult.getMessage());
+        }
+
+        byte[] bytes() {
+            return Base64.getDecoder().decode(pluginResult.getMessage());
+        }
+
+        /** Message of an error sent as a string or as a {code, message} object */
+        String errorMessage() throws JSONException {
+            if (pluginResult.getMessageType() == PluginResult.MESSAGE_TYPE_STRING) {
+                return pluginResult.getStrMessage();
+            }
+            return json().optString("message");
+        }
+    }
+
+    private static final class Sink implements CordovaWebView {
+        final List<Result> results = new ArrayList<Result>();
+
+        @Override
+        public synchronized void sendPluginResult(PluginResult pluginResult, String callbackId) {
+            results.add(new Result(pluginResult, Thread.currentThread().getName(), System.nanoTime()));
+            notifyAll();
+        }
+    }
+
+    private final Sink sink;
+
+    RecordingCallback(String callbackId) {
+        this(callbackId, new Sink());
+    }
+
+    private RecordingCallback(String callbackId, Sink sink) {
+        super(callbackId, sink);
+        this.sink = sink;
+    }
+
+    /** Every result except the NO_RESULT that keeps a watch's callback open */
+    List<Result> payloads() {
+        synchronized (sink) {
+            List<Result> payloads = new ArrayList<Result>();
+            for (Result result : sink.results) {
+                if (result.pluginResult.getStatus() != PluginResult.Status.NO_RESULT.ordinal()) {
+                    payloads.add(result);
+                }
+            }
+            return payloads;
+        }
+    }
+
+    /** Every result, including NO_RESULT */
+    List<Result> results() {
+        synchronized (sink) {
+            return new ArrayList<Result>(sink.results);
+        }
+    }
+
+    /**
+     * Wait until at least count payloads were sent
+     * @throws AssertionError on timeout
+     */
+    List<Result> awaitPayloads(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (sink) {
+            while (true) {
+                List<Result> payloads = payloads();
+                if (payloads.size() >= count) {
+                    return payloads;
+                }
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    throw new AssertionError("Expected " + count + " payloads on " + getCallbackId()
+                            + " within " + timeoutMs + " ms, got " + payloads.size());
+                }
+                sink.wait(remainingMs);
+            }
+        }
+    }
+
+    Result awaitPayload(long timeoutMs) throws InterruptedException {
+        return awaitPayloads(1, timeoutMs).get(0);
+    }
+}
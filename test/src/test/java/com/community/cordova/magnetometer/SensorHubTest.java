@@ -0,0 +1,234 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorHubTest {
+
+    private static final int MAG = Sensor.TYPE_MAGNETIC_FIELD;
+    private static final long MS = 1000000L;
+
+    /** Records registrations instead of talking to hardware */
+    private static class FakeSource implements SensorSource {
+        final Map<Integer, int[]> registered = new HashMap<Integer, int[]>();
+        int registerCalls = 0;
+        int unregisterCalls = 0;
+        Listener listener;
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean hasSensor(int sensorType) {
+            return sensorType == MAG;
+        }
+
+        @Override
+        public int getMinDelayUs(int sensorType) {
+            return 5000;
+        }
+
+        @Override
+        public int getMaxDelayUs(int sensorType) {
+            return 200000;
+        }
+
+        @Override
+        public void register(int sensorType, int samplingPeriodUs, int maxReportLatencyUs) {
+            registered.put(sensorType, new int[]{samplingPeriodUs, maxReportLatencyUs});
+            registerCalls++;
+        }
+
+        @Override
+        public void unregister(int sensorType) {
+            registered.remove(sensorType);
+            unregisterCalls++;
+        }
+
+        @Override
+        public void release() {
+            registered.clear();
+        }
+    }
+
+    private static class CountingSubscriber implements SensorHub.Subscriber {
+        final List<Long> timestamps = new ArrayList<Long>();
+
+        @Override
+        public void onSample(int sensorType, float[] values, long timestampNanos) {
+            timestamps.add(timestampNanos);
+        }
+    }
+
+    private FakeSource source;
+    private SensorHub hub;
+
+    @Before
+    public void setUp() {
+        source = new FakeSource();
+        hub = new SensorHub(source, new PluginMetrics());
+    }
+
+    @Test
+    public void registersOnceAtTheFastestRequestedPeriod() {
+        CountingSubscriber slow = new CountingSubscriber();
+        CountingSubscriber fast = new CountingSubscriber();
+
+        assertTrue(hub.subscribe(MAG, slow, 100000, 0));
+        assertTrue(hub.subscribe(MAG, fast, 20000, 0));
+        assertEquals(20000, source.registered.get(MAG)[0]);
+        assertEquals(2, source.registerCalls);
+
+        // A slower subscriber does not change the registration
+        CountingSubscriber medium = new CountingSubscriber();
+        hub.subscribe(MAG, medium, 50000, 0);
+        assertEquals(2, source.registerCalls);
+
+        hub.unsubscribe(MAG, fast);
+        assertEquals(50000, source.registered.get(MAG)[0]);
+        hub.unsubscribe(MAG, medium);
+        assertEquals(100000, source.registered.get(MAG)[0]);
+        hub.unsubscribe(MAG, slow);
+        assertFalse(source.registered.containsKey(MAG));
+    }
+
+    @Test
+    public void unregistersWhenTheLastSubscriberLeaves() {
+        CountingSubscriber subscriber = new CountingSubscriber();
+        hub.subscribe(MAG, subscriber, 20000, 0);
+        hub.unsubscribe(subscriber);
+
+        assertFalse(source.registered.containsKey(MAG));
+        assertEquals(1, source.unregisterCalls);
+    }
+
+    @Test
+    public void clampsPeriodsToTheSupportedRange() {
+        CountingSubscriber subscriber = new CountingSubscriber();
+        hub.subscribe(MAG, subscriber, 1000, 0);
+        assertEquals(5000, source.registered.get(MAG)[0]);
+
+        hub.unsubscribe(subscriber);
+        hub.subscribe(MAG, subscriber, 1000000, 0);
+        assertEquals(200000, source.registered.get(MAG)[0]);
+    }
+
+    @Test
+    public void usesTheShortestRequestedReportLatency() {
+        hub.subscribe(MAG, new CountingSubscriber(), 20000, 500000);
+        hub.subscribe(MAG, new CountingSubscriber(), 100000, 200000);
+        assertEquals(200000, source.registered.get(MAG)[1]);
+    }
+
+    @Test
+    public void rejectsMissingSensors() {
+        assertFalse(hub.subscribe(Sensor.TYPE_ROTATION_VECTOR, new CountingSubscriber(), 20000, 0));
+        assertTrue(source.registered.isEmpty());
+    }
+
+    @Test
+    public void decimatesEachSubscriberToItsOwnPeriod() {
+        CountingSubscriber every20 = new CountingSubscriber();
+        CountingSubscriber every100 = new CountingSubscriber();
+        hub.subscribe(MAG, every20, 20000, 0);
+        hub.subscribe(MAG, every100, 100000, 0);
+
+        // Two seconds of a sensor running at 200 Hz, faster than registered
+        float[] values = {10, 20, 30};
+        for (int i = 0; i < 400; i++) {
+            source.listener.onSensorSample(MAG, values, 3, 1000 * MS + i * 5 * MS);
+        }
+
+        assertEquals(100, every20.timestamps.size());
+        assertEquals(20, every100.timestamps.size());
+        for (int i = 1; i < every20.timestamps.size(); i++) {
+            assertEquals(20 * MS, every20.timestamps.get(i) - every20.timestamps.get(i - 1));
+        }
+        for (int i = 1; i < every100.timestamps.size(); i++) {
+            assertEquals(100 * MS, every100.timestamps.get(i) - every100.timestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void keepsTheAverageRateWithJitteredTimestamps() {
+        CountingSubscriber subscriber = new CountingSubscriber();
+        hub.subscribe(MAG, subscriber, 20000, 0);
+
+        // 10 ms sensor with +-2 ms of jitter for 10 s
+        float[] values = {10, 20, 30};
+        long timestamp = 1000 * MS;
+        for (int i = 0; i < 1000; i++) {
+            long jitter = (i % 5 - 2) * MS;
+            source.listener.onSensorSample(MAG, values, 3, timestamp + jitter);
+            timestamp += 10 * MS;
+        }
+
+        assertEquals(500, subscriber.timestamps.size(), 5);
+    }
+
+    @Test
+    public void restartsTheScheduleAfterAGapInsteadOfBursting() {
+        CountingSubscriber subscriber = new CountingSubscriber();
+        hub.subscribe(MAG, subscriber, 20000, 0);
+
+        // 200 Hz for one second, one second without samples, then 200 Hz again
+        float[] values = {10, 20, 30};
+        for (int i = 0; i < 200; i++) {
+            source.listener.onSensorSample(MAG, values, 3, 1000 * MS + i * 5 * MS);
+        }
+        assertEquals(50, subscriber.timestamps.size());
+        for (int i = 0; i < 200; i++) {
+            source.listener.onSensorSample(MAG, values, 3, 3000 * MS + i * 5 * MS);
+        }
+
+        assertEquals(100, subscriber.timestamps.size());
+        assertEquals(3000 * MS, (long) subscriber.timestamps.get(50));
+        assertEquals(3020 * MS, (long) subscriber.timestamps.get(51));
+    }
+
+    @Test
+    public void dropsSamplesOfSensorsWithoutSubscribers() {
+        source.listener.onSensorSample(MAG, new float[]{1, 2, 3}, 3, SystemClock.elapsedRealtimeNanos());
+        assertEquals(0, hub.copyLatest(MAG, 1000, new float[3]));
+    }
+
+    @Test
+    public void copiesOnlyFreshCachedSamples() {
+        hub.subscribe(MAG, new CountingSubscriber(), 20000, 0);
+
+        long now = SystemClock.elapsedRealtimeNanos();
+        source.listener.onSensorSample(MAG, new float[]{1, 2, 3}, 3, now - 300 * MS);
+        float[] out = new float[3];
+        assertEquals(0, hub.copyLatest(MAG, 250, out));
+
+        source.listener.onSensorSample(MAG, new float[]{4, 5, 6}, 3, now - 100 * MS);
+        assertEquals(now - 100 * MS, hub.copyLatest(MAG, 250, out));
+        assertArrayEquals(new float[]{4, 5, 6}, out, 0);
+    }
+
+    @Test
+    public void movesRegistrationsToANewSource() {
+        hub.subscribe(MAG, new CountingSubscriber(), 20000, 0);
+
+        FakeSource replay = new FakeSource();
+        hub.setSource(replay);
+
+        assertFalse(source.registered.containsKey(MAG));
+        assertEquals(20000, replay.registered.get(MAG)[0]);
+    }
+}
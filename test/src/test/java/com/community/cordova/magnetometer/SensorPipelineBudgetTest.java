@@ -0,0 +1,224 @@
+package com.community.cordova.magnetometer;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.os.SystemClock;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time and allocation budgets of the per-event path, from the sensor callback to the
+ * PluginResult handed to the bridge. Events are delivered on the sensor thread with one reused
+ * SensorEvent, so the measured allocations are the plugin's own.
+ *
+ * The budgets are loose enough for a loaded CI machine; they catch regressions such as
+ * allocating on decimated events or an order of magnitude more work per sample.
+ */
+public class SensorPipelineBudgetTest {
+
+    private static final int MAG = Sensor.TYPE_MAGNETIC_FIELD;
+    private static final int ACCEL = Sensor.TYPE_ACCELEROMETER;
+    private static final long PERIOD_NANOS = 5000000L;
+    private static final int WARMUP_EVENTS = 20000;
+    private static final int MEASURED_EVENTS = 50000;
+
+    // Measured on a desktop JVM: about 7.5 B per decimated event (the 1 in 200 delivered, amortized),
+    // 1.5 KB and 5 us per JSON reading, 170 B per binary reading, 15 us p99 per heading
+    private static final double DECIMATED_BYTES_PER_EVENT = 16;
+    private static final double JSON_BYTES_PER_READING = 2048;
+    private static final double JSON_NANOS_PER_READING = 50000;
+    private static final double BINARY_BYTES_PER_READING = 512;
+    private static final double HEADING_P99_NANOS = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeSensorManager sensors;
+    private PluginHarness harness;
+    private final AtomicLong delivered = new AtomicLong();
+    // Counts payloads without keeping them, so the callback adds no allocations of its own
+    private final CordovaWebView countingWebView = new CordovaWebView() {
+        @Override
+        public void sendPluginResult(PluginResult result, String callbackId) {
+            if (result.getStatus() == PluginResult.Status.OK.ordinal() && result.getKeepCallback()) {
+                delivered.incrementAndGet();
+            }
+        }
+    };
+
+    /** What one run of events cost on the sensor thread */
+    private static final class Cost {
+        long events;
+        long nanos;
+        long bytes;
+        long[] eventNanos;
+
+        double nanosPerEvent() {
+            return (double) nanos / events;
+        }
+
+        double bytesPerEvent() {
+            return (double) bytes / events;
+        }
+
+        long percentileNanos(double fraction) {
+            long[] sorted = eventNanos.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)];
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("Thread allocation counters not available", allocationCounterAvailable());
+        sensors = FakeSensorManager.withAllSensors();
+        harness = new PluginHarness(sensors, folder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (harness != null) {
+            harness.destroy();
+        }
+    }
+
+    private static boolean allocationCounterAvailable() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void execute(String action, Object... args) throws Exception {
+        harness.execute(new CallbackContext(action, countingWebView), action, args);
+        harness.awaitIdle();
+    }
+
+    private static JSONObject options(String key, Object value) throws Exception {
+        JSONObject options = new JSONObject();
+        if (key != null) {
+            options.put(key, value);
+        }
+        return options;
+    }
+
+    /**
+     * Warm the path up, then deliver events to the given sensors in turn on the sensor thread,
+     * timing each one and counting the thread's allocations
+     */
+    private Cost measure(final int[] types, final float[][] values) throws InterruptedException {
+        final Cost cost = new Cost();
+        harness.runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                SensorEvent[] events = new SensorEvent[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    events[i] = sensors.createEvent(types[i], 3);
+                    System.arraycopy(values[i], 0, events[i].values, 0, 3);
+                }
+                int total = WARMUP_EVENTS + MEASURED_EVENTS;
+                long[] eventNanos = new long[MEASURED_EVENTS];
+                // Timestamps end at the present, as if the events had been queued in the sensor FIFO
+                long timestamp = SystemClock.elapsedRealtimeNanos() - total * PERIOD_NANOS;
+
+                long startBytes = 0;
+                long startNanos = 0;
+                for (int i = 0; i < total; i++) {
+                    if (i == WARMUP_EVENTS) {
+                        startBytes = allocatedBytes();
+                        startNanos = System.nanoTime();
+                    }
+                    timestamp += PERIOD_NANOS;
+                    long eventStart = System.nanoTime();
+                    for (SensorEvent event : events) {
+                        event.timestamp = timestamp;
+                        if (!sensors.deliver(event)) {
+                            throw new AssertionError("sensor " + event.sensor.getType() + " not registered");
+                        }
+                    }
+                    if (i >= WARMUP_EVENTS) {
+                        eventNanos[i - WARMUP_EVENTS] = System.nanoTime() - eventStart;
+                    }
+                }
+                cost.nanos = System.nanoTime() - startNanos;
+                cost.bytes = allocatedBytes() - startBytes;
+                cost.events = MEASURED_EVENTS;
+                cost.eventNanos = eventNanos;
+            }
+        });
+        return cost;
+    }
+
+    private Cost measureField() throws InterruptedException {
+        return measure(new int[]{MAG}, new float[][]{{10, 20, 30}});
+    }
+
+    @Test
+    public void decimatedEventsDoNotAllocate() throws Exception {
+        execute("watchReadings", 1000, options(null, null));
+
+        Cost cost = measureField();
+        assertEquals((WARMUP_EVENTS + MEASURED_EVENTS) / 200, delivered.get());
+        assertTrue("decimated events allocated " + cost.bytesPerEvent() + " B/event",
+                cost.bytesPerEvent() < DECIMATED_BYTES_PER_EVENT);
+    }
+
+    @Test
+    public void jsonReadingsStayWithinBudget() throws Exception {
+        execute("watchReadings", 0, options(null, null));
+
+        Cost cost = measureField();
+        assertEquals(WARMUP_EVENTS + MEASURED_EVENTS, delivered.get());
+        assertTrue("JSON readings took " + cost.nanosPerEvent() + " ns/event",
+                cost.nanosPerEvent() < JSON_NANOS_PER_READING);
+        assertTrue("JSON readings allocated " + cost.bytesPerEvent() + " B/event",
+                cost.bytesPerEvent() < JSON_BYTES_PER_READING);
+    }
+
+    @Test
+    public void binaryReadingsAllocateLessThanJson() throws Exception {
+        execute("watchReadings", 0, options("format", "binary"));
+        Cost binary = measureField();
+        assertEquals(WARMUP_EVENTS + MEASURED_EVENTS, delivered.get());
+
+        execute("stopWatch", "readings");
+        execute("watchReadings", 0, options(null, null));
+        Cost json = measureField();
+
+        assertTrue("binary readings allocated " + binary.bytesPerEvent() + " B/event",
+                binary.bytesPerEvent() < BINARY_BYTES_PER_READING);
+        assertTrue("binary " + binary.bytesPerEvent() + " B/event, JSON " + json.bytesPerEvent() + " B/event",
+                binary.bytesPerEvent() < json.bytesPerEvent());
+    }
+
+    @Test
+    public void accelMagHeadingLatencyStaysWithinBudget() throws Exception {
+        execute("watchHeading", 0, 0, options("source", "accelMag"));
+
+        Cost cost = measure(new int[]{ACCEL, MAG}, new float[][]{{0, 0, 9.81f}, {0, 20, -40}});
+        assertEquals(WARMUP_EVENTS + MEASURED_EVENTS, delivered.get());
+        assertTrue("p99 of accelerometer + magnetometer events was " + cost.percentileNanos(0.99) + " ns",
+                cost.percentileNanos(0.99) < HEADING_P99_NANOS);
+    }
+}
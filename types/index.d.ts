@@ -10,8 +10,28 @@ export interface IMagnetometerReading {
     z: number;
     /** Total magnetic field magnitude in microteslas (μT) */
     magnitude: number;
-    /** Timestamp of the reading in milliseconds */
+    /** Timestamp of the reading in milliseconds since epoch; taken from the sensor event on Android */
     timestamp: number;
+    /**
+     * Sensor event timestamp in nanoseconds of elapsed realtime (Android). Use it for sub-millisecond
+     * intervals between samples; differences across streams are consistent.
+     */
+    timestampNanos?: number;
+    /** Uncalibrated sensor values before bias removal (watches with uncalibrated, Android) */
+    raw?: IVector3;
+    /** Hard-iron bias estimated by the system (watches with uncalibrated, Android) */
+    systemBias?: IVector3;
+    /** Bias subtracted from raw to give x, y and z (watches with uncalibrated, Android) */
+    bias?: IVector3;
+}
+
+/**
+ * Three-axis vector in microteslas (μT)
+ */
+export interface IVector3 {
+    x: number;
+    y: number;
+    z: number;
 }
 
 /**
@@ -20,12 +40,14 @@ export interface IMagnetometerReading {
 export interface IHeadingData {
     /** Magnetic heading in degrees (0-359.99), relative to magnetic north */
     magneticHeading: number;
-    /** True heading in degrees (0-359.99), relative to geographic north (requires location services) */
+    /** True heading in degrees (0-359.99), relative to geographic north (iOS: location services, Android: setLocation) */
     trueHeading: number;
     /** Heading accuracy in degrees (iOS only, -1 if unavailable) */
     headingAccuracy: number;
-    /** Timestamp of the reading in milliseconds */
+    /** Timestamp of the reading in milliseconds since epoch; taken from the sensor event on Android */
     timestamp: number;
+    /** Sensor event timestamp in nanoseconds of elapsed realtime (Android) */
+    timestampNanos?: number;
 }
 
 /**
@@ -50,10 +72,443 @@ export interface IMagnetometerInfo {
  * Watch options for continuous readings
  */
 export interface IWatchOptions {
+    /**
+     * ID of the watch, returned by the watch call (default: generated).
+     * Starting a watch with the ID of an active watch of the same kind replaces it; an ID in use by another kind of watch is rejected.
+     */
+    id?: string;
     /** Update frequency in milliseconds (default: 100) */
     frequency?: number;
     /** Minimum heading change in degrees to trigger update (heading watch only) */
     filter?: number;
+    /** Minimum time in milliseconds between heading updates (heading watch only, Android and browser) */
+    minIntervalMs?: number;
+    /**
+     * Exponential smoothing of the heading, 0 (off) to 0.99 (heaviest); higher values trade latency
+     * for a steadier heading (heading watch only, Android and browser)
+     */
+    smoothing?: number;
+    /** Payload format (default: 'json') */
+    format?: 'json' | 'binary';
+    /**
+     * Android sensor used to compute the heading (heading watch only, default: 'accelMag').
+     * Falls back to another source when the requested sensor is missing.
+     */
+    source?: 'accelMag' | 'rotationVector' | 'geomagneticRotationVector';
+    /**
+     * Maximum payloads sent to JS but not yet acknowledged (Android, default: 0 for no flow control).
+     * While the limit is reached, samples wait in a bounded queue according to deliveryPolicy.
+     */
+    maxInFlight?: number;
+    /**
+     * What to keep while JS is behind (default: 'latest'):
+     * 'latest' keeps only the newest sample, 'dropOldest' keeps the newest queueSize samples and sends them one by one,
+     * 'batch' keeps the newest queueSize samples and sends them together (callbacks then receive arrays)
+     */
+    deliveryPolicy?: 'latest' | 'dropOldest' | 'batch';
+    /** Samples held while JS is behind for 'dropOldest' and 'batch' (default: 16) */
+    queueSize?: number;
+    /** Acknowledge payloads yourself with ackWatch() instead of after each callback returns (default: false) */
+    manualAck?: boolean;
+    /**
+     * What the watch does while the app is in the background (Android, default: 'pause'):
+     * 'pause' stops its sensors, 'reduce' slows them to backgroundFrequency, 'continue' keeps the full rate.
+     * Paused and reduced watches resume at full rate, starting with a recent cached sample.
+     */
+    backgroundPolicy?: 'pause' | 'reduce' | 'continue';
+    /** Update interval in milliseconds used in the background with backgroundPolicy 'reduce' (default: 1000) */
+    backgroundFrequency?: number;
+    /**
+     * Read TYPE_MAGNETIC_FIELD_UNCALIBRATED instead of the system-calibrated field (readings watch only, Android).
+     * Readings then carry raw, systemBias and bias, and the plugin calibration is not applied.
+     */
+    uncalibrated?: boolean;
+    /**
+     * Bias subtracted from uncalibrated readings (default: 'none'):
+     * 'none' keeps the raw values, 'system' uses the system's estimate (which jumps when it recalibrates),
+     * 'envelope' tracks the bias continuously and smoothly from the sample stream
+     */
+    biasTracker?: 'none' | 'system' | 'envelope';
+}
+
+/**
+ * Watch options for batched readings delivery
+ */
+export interface IBatchWatchOptions extends IWatchOptions {
+    /** Number of readings delivered per callback */
+    batchSize: number;
+    /** Maximum time in milliseconds a reading may wait before its batch is delivered (default: 0, wait for a full batch) */
+    maxLatencyMs?: number;
+}
+
+/**
+ * Watch options for binary delivery.
+ *
+ * Each callback receives an ArrayBuffer of consecutive 28-byte little-endian records:
+ * float32 x, y, z (readings) or magneticHeading, trueHeading, headingAccuracy (headings),
+ * followed by an int64 timestamp in milliseconds and an int64 timestampNanos (see IMagnetometerReading).
+ */
+export interface IBinaryWatchOptions extends IWatchOptions {
+    format: 'binary';
+    /** Number of readings per ArrayBuffer (readings watch only) */
+    batchSize?: number;
+    /** Maximum time in milliseconds a reading may wait before its batch is delivered (readings watch only) */
+    maxLatencyMs?: number;
+}
+
+/**
+ * Sampling rates of an active watch
+ */
+export interface IWatchRateInfo {
+    /** Kind of watch */
+    type: 'readings' | 'heading' | 'analytics' | 'motion';
+    /** Update interval requested by the watch in milliseconds */
+    requestedIntervalMs: number;
+    /** Sampling period the sensor is registered at in microseconds (shared with other consumers of the sensor) */
+    samplingPeriodUs: number;
+    /** Fastest sampling period the sensor supports in microseconds */
+    minSamplingPeriodUs: number;
+    /** Slowest sampling period the sensor supports in microseconds (0 if unspecified) */
+    maxSamplingPeriodUs: number;
+    /** Measured interval between sensor events in milliseconds */
+    sensorIntervalMs: number;
+    /** Measured interval between updates delivered to this watch in milliseconds */
+    deliveredIntervalMs: number;
+    /** Measured update rate delivered to this watch in hertz */
+    deliveredFrequencyHz: number;
+    /** Payloads awaiting acknowledgement (with maxInFlight) */
+    inFlight?: number;
+    /** Samples held back waiting for acknowledgement (with maxInFlight) */
+    pending?: number;
+    /** Samples dropped by the delivery policy since the watch started (with maxInFlight) */
+    dropped?: number;
+}
+
+/**
+ * Sampling rates of the active watches, keyed by watch ID
+ */
+export interface IWatchInfo {
+    [id: string]: IWatchRateInfo;
+}
+
+/**
+ * Options for watchAnalytics
+ */
+export interface IAnalyticsOptions {
+    /** See IWatchOptions.id */
+    id?: string;
+    /** Interval in milliseconds of the magnetometer samples analysed (default: 20) */
+    frequency?: number;
+    /** Length of the rolling window in milliseconds (default: 1000) */
+    windowMs?: number;
+    /** Interval in milliseconds between summaries, 0 for anomaly events only (default: 1000) */
+    summaryIntervalMs?: number;
+    /** Magnitude in μT below which a 'belowMin' event starts (default: none) */
+    minMagnitude?: number;
+    /** Magnitude in μT above which an 'aboveMax' event starts (default: none) */
+    maxMagnitude?: number;
+    /** Margin in μT the magnitude must move back inside the limits to end a threshold event (default: 2) */
+    hysteresis?: number;
+    /** Deviation from the window mean in standard deviations that starts a 'zScoreHigh' event, 0 for none (default: 0) */
+    zScore?: number;
+    /** See IWatchOptions.backgroundPolicy */
+    backgroundPolicy?: 'pause' | 'reduce' | 'continue';
+    /** See IWatchOptions.backgroundFrequency */
+    backgroundFrequency?: number;
+}
+
+/**
+ * Options for watchMotion
+ */
+export interface IMotionOptions {
+    /** See IWatchOptions.id */
+    id?: string;
+    /** Interval in milliseconds between records (default: 100) */
+    frequency?: number;
+    /**
+     * Parts of the record to compute and send (default: all). 'field' is x, y, z; 'heading' is
+     * magneticHeading and trueHeading; 'attitude' is pitch and roll; 'accuracy' is accuracy and calibrationNeeded
+     */
+    fields?: Array<'field' | 'magnitude' | 'heading' | 'attitude' | 'accuracy'>;
+    /** Sensor heading and attitude are computed from, see IWatchOptions.source (default: 'accelMag') */
+    source?: 'accelMag' | 'rotationVector' | 'geomagneticRotationVector';
+    /** See IWatchOptions.backgroundPolicy */
+    backgroundPolicy?: 'pause' | 'reduce' | 'continue';
+    /** See IWatchOptions.backgroundFrequency */
+    backgroundFrequency?: number;
+}
+
+/**
+ * Fused record of a motion watch; only the requested fields are present
+ */
+export interface IMotionData {
+    /** Calibrated field in μT */
+    x?: number;
+    y?: number;
+    z?: number;
+    /** Field magnitude in μT */
+    magnitude?: number;
+    /** Degrees from magnetic north (0-360) */
+    magneticHeading?: number;
+    /** Degrees from true north (0-360), the magnetic heading while no location is set */
+    trueHeading?: number;
+    /** Rotation about the device x axis in degrees (-90 to 90) */
+    pitch?: number;
+    /** Rotation about the device y axis in degrees (-180 to 180) */
+    roll?: number;
+    /** Sensor accuracy level (0-3) */
+    accuracy?: number;
+    calibrationNeeded?: boolean;
+    timestamp: number;
+    /** Sensor timestamp in nanoseconds of elapsed realtime */
+    timestampNanos: number;
+}
+
+/**
+ * Rolling statistics of one quantity over the analytics window, in μT
+ */
+export interface IRollingStats {
+    mean: number;
+    stdDev: number;
+    min: number;
+    max: number;
+}
+
+/**
+ * Periodic summary of the analytics window
+ */
+export interface IAnalyticsSummary {
+    type: 'summary';
+    /** Samples in the window */
+    count: number;
+    magnitude: IRollingStats;
+    x: IRollingStats;
+    y: IRollingStats;
+    z: IRollingStats;
+    /** Time of the latest sample in milliseconds */
+    timestamp: number;
+    /** Sensor timestamp of the latest sample in nanoseconds of elapsed realtime */
+    timestampNanos: number;
+}
+
+/**
+ * Start or end of a magnitude anomaly
+ */
+export interface IAnalyticsEvent {
+    type: 'anomaly';
+    /** Threshold crossing ('aboveMax', 'belowMin', back 'inRange') or z-score anomaly start and end */
+    kind: 'aboveMax' | 'belowMin' | 'inRange' | 'zScoreHigh' | 'zScoreNormal';
+    /** Magnitude of the sample that raised the event */
+    magnitude: number;
+    /** Deviation of that sample from the window mean, in standard deviations */
+    zScore: number;
+    /** Window mean and standard deviation before the sample */
+    mean: number;
+    stdDev: number;
+    timestamp: number;
+    /** Sensor timestamp of the sample in nanoseconds of elapsed realtime */
+    timestampNanos: number;
+}
+
+/**
+ * Progress of a running calibration
+ */
+export interface ICalibrationProgress {
+    status: 'progress';
+    /** Samples collected so far */
+    sampleCount: number;
+    /** Ratio of the smallest to the largest per-axis spread of the samples, 0-1; keep moving the device until it is high */
+    coverage: number;
+}
+
+/**
+ * Options for startCalibration
+ */
+export interface ICalibrationOptions {
+    /** How long to collect samples in milliseconds (default: 15000) */
+    durationMs?: number;
+    /** Called periodically while samples are collected */
+    onProgress?: (progress: ICalibrationProgress) => void;
+}
+
+/**
+ * Options for one-shot calls
+ */
+export interface IOneShotOptions {
+    /**
+     * Oldest cached sample in milliseconds that may answer the call instead of a new one (Android, default: 250).
+     * 0 always waits for a new sample.
+     */
+    maxAgeMs?: number;
+}
+
+/**
+ * World Magnetic Model values at the location set with setLocation
+ */
+export interface IGeomagneticInfo {
+    /** Location the model was evaluated at, in degrees and meters */
+    latitude: number;
+    longitude: number;
+    altitude: number;
+    /** Angle of magnetic north east of true north in degrees, added to magneticHeading to give trueHeading */
+    declination: number;
+    /** Angle of the field below the horizontal in degrees */
+    inclination: number;
+    /** Expected field strength in microteslas (μT) */
+    fieldStrength: number;
+    /** Time the model was evaluated for, in milliseconds */
+    timestamp: number;
+}
+
+/**
+ * Hard-iron / soft-iron calibration applied to readings and headings:
+ * corrected = matrix * (raw - offset)
+ */
+export interface ICalibration {
+    /** Whether a calibration is stored and applied */
+    active: boolean;
+    /** Hard-iron offset [x, y, z] in microteslas */
+    offset?: number[];
+    /** Soft-iron correction, row-major 3x3 (identity for a hard-iron only fit) */
+    matrix?: number[];
+    /** Whether the soft-iron ellipsoid model was fitted (false: sphere fit, hard-iron only) */
+    softIron?: boolean;
+    /**
+     * Samples the calibration was fitted on and applies to: raw 'uncalibrated' magnetometer values,
+     * or the system-corrected 'calibrated' stream on devices without an uncalibrated sensor
+     */
+    frame?: 'uncalibrated' | 'calibrated';
+    /** Fitted local field strength in microteslas */
+    fieldStrength?: number;
+    /** RMS relative deviation of the samples from the fitted surface */
+    fitError?: number;
+    /** Number of samples used by the fit */
+    sampleCount?: number;
+    /** When the calibration was computed, in milliseconds */
+    timestamp?: number;
+}
+
+/**
+ * A finished or running sensor recording
+ */
+export interface IRecordingInfo {
+    /** Absolute path of the recording file */
+    path: string;
+    /** Number of events written (stopRecording only) */
+    eventCount?: number;
+}
+
+/**
+ * Options for startCapture
+ */
+export interface ICaptureOptions {
+    /** File path, defaults to a new file in the app's files directory */
+    path?: string;
+    /** Sampling period in microseconds, 0 for the fastest the sensors support (default: 0) */
+    rateUs?: number;
+    /** Also capture TYPE_MAGNETIC_FIELD_UNCALIBRATED (raw values and hard-iron bias) (default: false) */
+    includeUncalibrated?: boolean;
+    /** Also capture the accelerometer (default: false) */
+    includeAccelerometer?: boolean;
+    /** File size limit in bytes; later samples are counted as dropped (default: 256 MB) */
+    maxSizeBytes?: number;
+}
+
+/**
+ * A capture file, as returned by startCapture and stopCapture
+ */
+export interface ICaptureInfo {
+    /** Absolute path of the capture file */
+    path: string;
+    /** Android sensor types being captured (startCapture only) */
+    sensorTypes?: number[];
+    /** Records written (stopCapture only) */
+    recordCount?: number;
+    /** Samples not written because the size limit was reached (stopCapture only) */
+    droppedCount?: number;
+    /** Time between the first and last record (stopCapture only) */
+    durationMs?: number;
+    /** Final file size (stopCapture only) */
+    sizeBytes?: number;
+}
+
+/**
+ * Options for startReplay
+ */
+export interface IReplayOptions {
+    /** Path of a file written by startRecording */
+    path: string;
+    /** 'realtime' paces events like the original capture, 'max' replays as fast as possible (default: 'realtime') */
+    speed?: 'realtime' | 'max';
+}
+
+/**
+ * Outcome of a replay
+ */
+export interface IReplayResult {
+    /** Number of recorded events played back */
+    eventCount: number;
+    /** false if the replay was stopped before the end of the recording */
+    completed: boolean;
+}
+
+/**
+ * Duration histogram summary; percentiles are power-of-two bucket upper bounds
+ */
+export interface IDurationStats {
+    count: number;
+    meanUs: number;
+    maxUs: number;
+    p50Us: number;
+    p90Us: number;
+    p99Us: number;
+}
+
+/**
+ * Pipeline metrics since start or the last resetMetrics
+ */
+export interface IMetrics {
+    /** Milliseconds covered by these metrics */
+    sinceMs: number;
+    /** Per Android sensor type (e.g. '2' for the magnetometer) */
+    sensors: {
+        [sensorType: string]: {
+            /** Events received from the sensor */
+            received: number;
+            receivedPerSecond: number;
+            /** Events skipped for a consumer running slower than the sensor, counted once per consumer */
+            decimated: number;
+        };
+    };
+    watches: {
+        [watch in 'readings' | 'heading' | 'analytics' | 'motion']: {
+            /** Samples sent to JS */
+            delivered: number;
+            /** Samples dropped before the bridge, e.g. by the heading filter */
+            filtered: number;
+            /** Samples discarded by the delivery policy because JS was behind */
+            dropped: number;
+            /** Time from the oldest sample's sensor timestamp to its payload being sent */
+            bridgeLatency: IDurationStats;
+        };
+    };
+    timings: {
+        /** Heading computation per sample */
+        heading: IDurationStats;
+        /** Building and sending one watch payload */
+        serialization: IDurationStats;
+    };
+    /** Mapping of sensor timestamps to epoch time, shared by all streams */
+    clock: {
+        /** Epoch nanoseconds minus elapsed realtime nanoseconds */
+        offsetNanos: number;
+        /** Error of the offset at the last measurement, before correction */
+        lastErrorUs: number;
+        /** Estimated drift of the wall clock against elapsed realtime */
+        driftPpm: number;
+        /** Times the wall clock was set and the offset was stepped instead of slewed */
+        steps: number;
+    };
 }
 
 /**
@@ -78,57 +533,160 @@ export default class MagnetometerManager {
 
     /**
      * Get current magnetometer reading (single reading)
+     * @param options Optional settings including maxAgeMs
      * @returns Promise resolving to magnetometer data with x, y, z values
      */
-    getReading(): Promise<IMagnetometerReading>;
+    getReading(options?: IOneShotOptions): Promise<IMagnetometerReading>;
 
     /**
      * Get current compass heading
+     * @param options Optional settings including maxAgeMs
      * @returns Promise resolving to heading data
      */
-    getHeading(): Promise<IHeadingData>;
+    getHeading(options?: IOneShotOptions): Promise<IHeadingData>;
+
+    /**
+     * Start watching magnetometer readings as binary records
+     * @param successCallback Called with an ArrayBuffer of one or more records on each update
+     * @param errorCallback Called on error
+     * @param options Settings with format 'binary'
+     * @returns Watch ID to use for stopping
+     */
+    watchReadings(
+        successCallback: (data: ArrayBuffer) => void,
+        errorCallback: (error: string) => void,
+        options: IBinaryWatchOptions
+    ): string;
+
+    /**
+     * Start watching magnetometer readings in batches
+     * @param successCallback Called with an array of readings, oldest first, on each flush
+     * @param errorCallback Called on error
+     * @param options Settings including frequency, batchSize and maxLatencyMs
+     * @returns Watch ID to use for stopping
+     */
+    watchReadings(
+        successCallback: (data: IMagnetometerReading[]) => void,
+        errorCallback: (error: string) => void,
+        options: IBatchWatchOptions
+    ): string;
 
     /**
      * Start watching magnetometer readings continuously
      * @param successCallback Called with magnetometer data on each update
      * @param errorCallback Called on error
      * @param options Optional settings including frequency
+     * @returns Watch ID to use for stopping
      */
     watchReadings(
         successCallback: (data: IMagnetometerReading) => void,
         errorCallback: (error: string) => void,
         options?: IWatchOptions
-    ): void;
+    ): string;
 
     /**
      * Stop watching magnetometer readings
+     * @param id Watch ID returned by watchReadings(); stops every readings watch when omitted
      * @returns Promise resolving when stopped
      */
-    stopWatch(): Promise<void>;
+    stopWatch(id?: string): Promise<void>;
+
+    /**
+     * Start watching compass heading as binary records
+     * @param successCallback Called with an ArrayBuffer holding one record on each update
+     * @param errorCallback Called on error
+     * @param options Settings with format 'binary'
+     * @returns Watch ID to use for stopping
+     */
+    watchHeading(
+        successCallback: (data: ArrayBuffer) => void,
+        errorCallback: (error: string) => void,
+        options: IBinaryWatchOptions
+    ): string;
 
     /**
      * Start watching compass heading continuously
      * @param successCallback Called with heading data on each update
      * @param errorCallback Called on error
      * @param options Optional settings including frequency and filter
+     * @returns Watch ID to use for stopping
      */
     watchHeading(
         successCallback: (data: IHeadingData) => void,
         errorCallback: (error: string) => void,
         options?: IWatchOptions
-    ): void;
+    ): string;
+
+    /**
+     * Acknowledge consumed payloads of a watch started with maxInFlight and manualAck
+     * @param watch Watch ID returned by watchReadings() or watchHeading()
+     * @param count Number of payloads consumed (default: 1)
+     */
+    ackWatch(watch: string, count?: number): Promise<void>;
 
     /**
      * Stop watching compass heading
+     * @param id Watch ID returned by watchHeading(); stops every heading watch when omitted
      * @returns Promise resolving when stopped
      */
-    stopWatchHeading(): Promise<void>;
+    stopWatchHeading(id?: string): Promise<void>;
+
+    /**
+     * Watch rolling statistics and anomaly events of the magnetic field, computed natively so
+     * individual samples never cross the bridge (Android)
+     * @param successCallback Called with periodic summaries and anomaly events
+     * @param errorCallback Called on error
+     * @param options Window, summary and anomaly settings
+     * @returns Watch ID to use for stopping
+     */
+    watchAnalytics(
+        successCallback: (data: IAnalyticsSummary | IAnalyticsEvent) => void,
+        errorCallback: (error: IMagnetometerError) => void,
+        options?: IAnalyticsOptions
+    ): string;
+
+    /**
+     * Stop watching analytics
+     * @param id Watch ID returned by watchAnalytics(); stops every analytics watch when omitted
+     */
+    stopAnalytics(id?: string): Promise<void>;
+
+    /**
+     * Watch one fused record per magnetometer sample, with only the requested fields computed
+     * and serialized natively (Android)
+     * @param successCallback Called with each record
+     * @param errorCallback Called on error
+     * @param options Frequency, fields and heading source
+     * @returns Watch ID to use for stopping
+     */
+    watchMotion(
+        successCallback: (data: IMotionData) => void,
+        errorCallback: (error: IMagnetometerError) => void,
+        options?: IMotionOptions
+    ): string;
+
+    /**
+     * Stop watching motion
+     * @param id Watch ID returned by watchMotion(); stops every motion watch when omitted
+     */
+    stopMotion(id?: string): Promise<void>;
+
+    /**
+     * Set the device location so headings carry a trueHeading corrected by the magnetic declination (Android).
+     * The declination is recomputed only when the location moves more than 5 km or 1 km in altitude.
+     * @param latitude Degrees, or null to clear the location
+     * @param longitude Degrees
+     * @param altitude Meters above the WGS84 ellipsoid (default: 0)
+     * @returns Promise resolving to the model values at the location, or nothing when cleared
+     */
+    setLocation(latitude: number | null, longitude?: number, altitude?: number): Promise<IGeomagneticInfo | void>;
 
     /**
      * Get complete magnetometer information
+     * @param options Optional settings including maxAgeMs
      * @returns Promise resolving to complete magnetometer info
      */
-    getMagnetometerInfo(): Promise<IMagnetometerInfo>;
+    getMagnetometerInfo(options?: IOneShotOptions): Promise<IMagnetometerInfo>;
 
     /**
      * Get sensor accuracy level
@@ -144,7 +702,84 @@ export default class MagnetometerManager {
 
     /**
      * Get magnetic field strength (magnitude)
+     * @param options Optional settings including maxAgeMs
      * @returns Promise resolving to field strength in microteslas
      */
-    getFieldStrength(): Promise<number>;
+    getFieldStrength(options?: IOneShotOptions): Promise<number>;
+
+    /**
+     * Get the requested, registered and measured sampling rates of the active watches (Android and browser)
+     * @returns Promise resolving to rate info for each active watch
+     */
+    getWatchInfo(): Promise<IWatchInfo>;
+
+    /**
+     * Collect samples while the user moves the device in a figure-8, then fit, persist and apply
+     * hard-iron offsets and a soft-iron matrix (Android)
+     * @param options Duration and progress callback
+     * @returns Promise resolving to the new calibration, rejected if the samples did not cover enough orientations
+     */
+    startCalibration(options?: ICalibrationOptions): Promise<ICalibration>;
+
+    /**
+     * Get the calibration applied to readings and headings (Android)
+     * @returns Promise resolving to the stored calibration
+     */
+    getCalibration(): Promise<ICalibration>;
+
+    /**
+     * Discard the stored calibration and return to uncorrected readings (Android)
+     */
+    resetCalibration(): Promise<void>;
+
+    /**
+     * Record every raw sensor event (timestamp, sensor type, accuracy, values) to a compact binary file (Android)
+     * @param path File path, defaults to a new file in the app's files directory
+     */
+    startRecording(path?: string): Promise<IRecordingInfo>;
+
+    /**
+     * Stop recording (Android)
+     */
+    stopRecording(): Promise<IRecordingInfo>;
+
+    /**
+     * Capture samples at up to the sensors' fastest rate into a memory-mapped file, without sending them to JS (Android)
+     */
+    startCapture(options?: ICaptureOptions): Promise<ICaptureInfo>;
+
+    /**
+     * Stop the capture and close its file (Android)
+     */
+    stopCapture(): Promise<ICaptureInfo>;
+
+    /**
+     * Read a window of records from a capture file, also while it is being written (Android)
+     * @param path Capture file path
+     * @param first Index of the first record (default: 0)
+     * @param count Maximum number of records (default: 4096, at most 65536)
+     * @returns Records in the capture record layout; fewer than count at the end of the file
+     */
+    readCapture(path: string, first?: number, count?: number): Promise<ArrayBuffer>;
+
+    /**
+     * Replay a recording in place of the device sensors, through the same pipeline as live data (Android)
+     * @returns Promise resolving when the replay ends or is stopped
+     */
+    startReplay(options: IReplayOptions): Promise<IReplayResult>;
+
+    /**
+     * Stop a replay and switch back to the device sensors (Android)
+     */
+    stopReplay(): Promise<void>;
+
+    /**
+     * Get event counts, drops and latency histograms of the sensor pipeline (Android)
+     */
+    getMetrics(): Promise<IMetrics>;
+
+    /**
+     * Reset all metrics (Android)
+     */
+    resetMetrics(): Promise<void>;
 }
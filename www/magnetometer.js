@@ -2,6 +2,12 @@ var exec = require('cordova/exec');
 
 var PLUGIN_NAME = 'Magnetometer';
 
+// Sequence for generated watch IDs
+var watchCounter = 0;
+
+// In-flight one-shot calls by action and maxAgeMs, shared by concurrent callers
+var pendingRequests = {};
+
 var MagnetometerPlugin = {
     /**
      * Check if magnetometer sensor is available on the device
@@ -15,79 +21,224 @@ var MagnetometerPlugin = {
 
     /**
      * Get current magnetometer reading (single reading)
+     * @param {object} options Optional settings { maxAgeMs: number } - accept a cached sample up to this old (default: 250)
      * @returns {Promise<object>} Magnetometer data with x, y, z values in microteslas
      */
-    getReading: function() {
-        return new Promise(function(resolve, reject) {
-            exec(resolve, reject, PLUGIN_NAME, 'getReading', []);
-        });
+    getReading: function(options) {
+        return requestOnce('getReading', options);
     },
 
     /**
      * Get current compass heading
+     * @param {object} options Optional settings { maxAgeMs: number } - accept a cached sample up to this old (default: 250)
      * @returns {Promise<object>} Heading data with magneticHeading, trueHeading, headingAccuracy, timestamp
      */
-    getHeading: function() {
-        return new Promise(function(resolve, reject) {
-            exec(resolve, reject, PLUGIN_NAME, 'getHeading', []);
-        });
+    getHeading: function(options) {
+        return requestOnce('getHeading', options);
     },
 
     /**
      * Start watching magnetometer readings continuously
-     * @param {function} successCallback Called with magnetometer data on each update
+     * @param {function} successCallback Called with magnetometer data on each update,
+     *     with an array of readings per flush when batchSize is set,
+     *     or with an ArrayBuffer of 28-byte records when format is 'binary'
      * @param {function} errorCallback Called on error
-     * @param {object} options Optional settings { frequency: number (ms) }
+     * @param {object} options Optional settings { frequency: number (ms), batchSize: number, maxLatencyMs: number, format: 'json' | 'binary',
+     *     maxInFlight: number, deliveryPolicy: 'latest' | 'dropOldest' | 'batch', queueSize: number, manualAck: boolean,
+     *     backgroundPolicy: 'pause' | 'reduce' | 'continue', backgroundFrequency: number (ms),
+     *     uncalibrated: boolean, biasTracker: 'none' | 'system' | 'envelope', id: string }
      * @returns {string} Watch ID to use for stopping
      */
     watchReadings: function(successCallback, errorCallback, options) {
         var frequency = (options && options.frequency) ? options.frequency : 100;
-        exec(successCallback, errorCallback, PLUGIN_NAME, 'watchReadings', [frequency]);
+        var watchOptions = addDeliveryOptions({
+            id: createWatchId('readings', options),
+            batchSize: (options && options.batchSize) ? options.batchSize : 0,
+            maxLatencyMs: (options && options.maxLatencyMs) ? options.maxLatencyMs : 0,
+            format: (options && options.format) ? options.format : 'json',
+            uncalibrated: !!(options && options.uncalibrated),
+            biasTracker: (options && options.biasTracker) ? options.biasTracker : 'none'
+        }, options);
+
+        var callback = successCallback;
+        if ((watchOptions.batchSize > 0 || watchOptions.deliveryPolicy === 'batch') && watchOptions.format !== 'binary') {
+            callback = function(data) {
+                successCallback(unpackReadings(data));
+            };
+        }
+
+        exec(withAcknowledgement(callback, watchOptions), errorCallback, PLUGIN_NAME, 'watchReadings',
+            [frequency, watchOptions]);
+        return watchOptions.id;
     },
 
     /**
      * Stop watching magnetometer readings
+     * @param {string} id Watch ID returned by watchReadings(); stops every readings watch when omitted
      * @returns {Promise<void>}
      */
-    stopWatch: function() {
+    stopWatch: function(id) {
         return new Promise(function(resolve, reject) {
-            exec(resolve, reject, PLUGIN_NAME, 'stopWatch', []);
+            exec(resolve, reject, PLUGIN_NAME, 'stopWatch', id ? [id] : []);
         });
     },
 
     /**
      * Start watching compass heading continuously
-     * @param {function} successCallback Called with heading data on each update
+     * @param {function} successCallback Called with heading data on each update,
+     *     or with an ArrayBuffer of one 28-byte record when format is 'binary'
      * @param {function} errorCallback Called on error
-     * @param {object} options Optional settings { frequency: number (ms), filter: number (degrees) }
+     * @param {object} options Optional settings { frequency: number (ms), filter: number (degrees), format: 'json' | 'binary',
+     *     source: 'accelMag' | 'rotationVector' | 'geomagneticRotationVector', minIntervalMs: number, smoothing: number (0-1),
+     *     maxInFlight: number, deliveryPolicy: 'latest' | 'dropOldest' | 'batch', queueSize: number, manualAck: boolean,
+     *     backgroundPolicy: 'pause' | 'reduce' | 'continue', backgroundFrequency: number (ms), id: string }
      * @returns {string} Watch ID to use for stopping
      */
     watchHeading: function(successCallback, errorCallback, options) {
         var frequency = (options && options.frequency) ? options.frequency : 100;
         var filter = (options && options.filter) ? options.filter : 0;
-        exec(successCallback, errorCallback, PLUGIN_NAME, 'watchHeading', [frequency, filter]);
+        var headingOptions = addDeliveryOptions({
+            id: createWatchId('heading', options),
+            format: (options && options.format) ? options.format : 'json',
+            source: (options && options.source) ? options.source : 'accelMag',
+            minIntervalMs: (options && options.minIntervalMs) ? options.minIntervalMs : 0,
+            smoothing: (options && options.smoothing) ? options.smoothing : 0
+        }, options);
+
+        var callback = successCallback;
+        if (headingOptions.deliveryPolicy === 'batch' && headingOptions.format !== 'binary') {
+            callback = function(data) {
+                successCallback(unpackHeadings(data));
+            };
+        }
+
+        exec(withAcknowledgement(callback, headingOptions), errorCallback, PLUGIN_NAME, 'watchHeading',
+            [frequency, filter, headingOptions]);
+        return headingOptions.id;
+    },
+
+    /**
+     * Watch rolling statistics and anomaly events of the magnetic field, computed natively
+     * @param {function} successCallback Called with { type: 'summary', ... } every summaryIntervalMs
+     *     and with { type: 'anomaly', kind, ... } when a threshold or z-score anomaly starts or ends
+     * @param {function} errorCallback Called on error
+     * @param {object} options Optional settings { frequency: number (ms), windowMs: number, summaryIntervalMs: number,
+     *     minMagnitude: number, maxMagnitude: number, hysteresis: number, zScore: number,
+     *     backgroundPolicy: 'pause' | 'reduce' | 'continue', backgroundFrequency: number (ms), id: string }
+     * @returns {string} Watch ID to use for stopping
+     */
+    watchAnalytics: function(successCallback, errorCallback, options) {
+        var analyticsOptions = {
+            id: createWatchId('analytics', options),
+            frequency: (options && options.frequency) ? options.frequency : 20,
+            windowMs: (options && options.windowMs) ? options.windowMs : 1000,
+            summaryIntervalMs: (options && options.summaryIntervalMs !== undefined) ? options.summaryIntervalMs : 1000,
+            hysteresis: (options && options.hysteresis !== undefined) ? options.hysteresis : 2,
+            zScore: (options && options.zScore) ? options.zScore : 0,
+            backgroundPolicy: (options && options.backgroundPolicy) ? options.backgroundPolicy : 'pause',
+            backgroundFrequency: (options && options.backgroundFrequency) ? options.backgroundFrequency : 1000
+        };
+        if (options && typeof options.minMagnitude === 'number') {
+            analyticsOptions.minMagnitude = options.minMagnitude;
+        }
+        if (options && typeof options.maxMagnitude === 'number') {
+            analyticsOptions.maxMagnitude = options.maxMagnitude;
+        }
+        exec(successCallback, errorCallback, PLUGIN_NAME, 'watchAnalytics', [analyticsOptions]);
+        return analyticsOptions.id;
+    },
+
+    /**
+     * Stop watching analytics
+     * @param {string} id Watch ID returned by watchAnalytics(); stops every analytics watch when omitted
+     * @returns {Promise<void>}
+     */
+    stopAnalytics: function(id) {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'stopAnalytics', id ? [id] : []);
+        });
+    },
+
+    /**
+     * Watch one fused record per magnetometer sample, computed natively
+     * @param {function} successCallback Called with { x, y, z, magnitude, magneticHeading, trueHeading, pitch, roll,
+     *     accuracy, calibrationNeeded, timestamp, timestampNanos }, limited to the requested fields
+     * @param {function} errorCallback Called on error
+     * @param {object} options Optional settings { frequency: number (ms),
+     *     fields: Array<'field' | 'magnitude' | 'heading' | 'attitude' | 'accuracy'>, source: 'accelMag' | 'rotationVector' |
+     *     'geomagneticRotationVector', backgroundPolicy: 'pause' | 'reduce' | 'continue', backgroundFrequency: number (ms), id: string }
+     * @returns {string} Watch ID to use for stopping
+     */
+    watchMotion: function(successCallback, errorCallback, options) {
+        var frequency = (options && options.frequency) ? options.frequency : 100;
+        var motionOptions = {
+            id: createWatchId('motion', options),
+            fields: (options && options.fields) ? options.fields : [],
+            source: (options && options.source) ? options.source : 'accelMag',
+            backgroundPolicy: (options && options.backgroundPolicy) ? options.backgroundPolicy : 'pause',
+            backgroundFrequency: (options && options.backgroundFrequency) ? options.backgroundFrequency : 1000
+        };
+        exec(successCallback, errorCallback, PLUGIN_NAME, 'watchMotion', [frequency, motionOptions]);
+        return motionOptions.id;
+    },
+
+    /**
+     * Stop watching motion
+     * @param {string} id Watch ID returned by watchMotion(); stops every motion watch when omitted
+     * @returns {Promise<void>}
+     */
+    stopMotion: function(id) {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'stopMotion', id ? [id] : []);
+        });
+    },
+
+    /**
+     * Acknowledge payloads of a watch started with maxInFlight and manualAck, letting native send more
+     * @param {string} watch Watch ID returned by watchReadings() or watchHeading()
+     * @param {number} count Number of payloads consumed (default: 1)
+     * @returns {Promise<void>}
+     */
+    ackWatch: function(watch, count) {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'ackWatch', [watch, count || 1]);
+        });
     },
 
     /**
      * Stop watching compass heading
+     * @param {string} id Watch ID returned by watchHeading(); stops every heading watch when omitted
      * @returns {Promise<void>}
      */
-    stopWatchHeading: function() {
+    stopWatchHeading: function(id) {
         return new Promise(function(resolve, reject) {
-            exec(resolve, reject, PLUGIN_NAME, 'stopWatchHeading', []);
+            exec(resolve, reject, PLUGIN_NAME, 'stopWatchHeading', id ? [id] : []);
         });
     },
 
     /**
-     * Get complete magnetometer information
-     * @returns {Promise<object>} Complete magnetometer info including availability, reading, heading, accuracy
+     * Set the device location used to compute trueHeading from the magnetic declination (Android)
+     * @param {number} latitude Degrees, or null to clear the location
+     * @param {number} longitude Degrees
+     * @param {number} altitude Meters above the WGS84 ellipsoid (default: 0)
+     * @returns {Promise<object>} { latitude, longitude, altitude, declination, inclination, fieldStrength, timestamp }
      */
-    getMagnetometerInfo: function() {
+    setLocation: function(latitude, longitude, altitude) {
         return new Promise(function(resolve, reject) {
-            exec(resolve, reject, PLUGIN_NAME, 'getMagnetometerInfo', []);
+            exec(resolve, reject, PLUGIN_NAME, 'setLocation',
+                latitude === null || latitude === undefined ? [] : [latitude, longitude, altitude || 0]);
         });
     },
 
+    /**
+     * Get complete magnetometer information
+     * @param {object} options Optional settings { maxAgeMs: number } - accept a cached sample up to this old (default: 250)
+     * @returns {Promise<object>} Complete magnetometer info including availability, reading, heading, accuracy
+     */
+    getMagnetometerInfo: function(options) {
+        return requestOnce('getMagnetometerInfo', options);
+    },
+
     /**
      * Get sensor accuracy level
      * @returns {Promise<number>} Accuracy: 0=unreliable, 1=low, 2=medium, 3=high
@@ -108,15 +259,296 @@ var MagnetometerPlugin = {
         });
     },
 
+    /**
+     * Get the requested, registered and measured sampling rates of the active watches
+     * @returns {Promise<object>} Watch info keyed by watch ID, each with its type ('readings', 'heading', 'analytics' or 'motion')
+     */
+    getWatchInfo: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'getWatchInfo', []);
+        });
+    },
+
     /**
      * Get magnetic field strength (magnitude)
+     * @param {object} options Optional settings { maxAgeMs: number } - accept a cached sample up to this old (default: 250)
      * @returns {Promise<number>} Field strength in microteslas
      */
-    getFieldStrength: function() {
+    getFieldStrength: function(options) {
+        return requestOnce('getFieldStrength', options);
+    },
+
+    /**
+     * Run a calibration routine: collect samples while the user moves the device in a figure-8,
+     * then fit, persist and apply hard-iron offsets and a soft-iron matrix
+     * @param {object} options Optional settings { durationMs: number, onProgress: function({ sampleCount, coverage }) }
+     * @returns {Promise<object>} The new calibration
+     */
+    startCalibration: function(options) {
+        var durationMs = (options && options.durationMs) ? options.durationMs : 15000;
+        var onProgress = (options && options.onProgress) ? options.onProgress : null;
+        return new Promise(function(resolve, reject) {
+            exec(function(result) {
+                if (result && result.status === 'progress') {
+                    if (onProgress) {
+                        onProgress(result);
+                    }
+                    return;
+                }
+                resolve(result);
+            }, reject, PLUGIN_NAME, 'startCalibration', [{ durationMs: durationMs }]);
+        });
+    },
+
+    /**
+     * Get the calibration applied to readings and headings
+     * @returns {Promise<object>} { active: boolean, offset, matrix, softIron, fieldStrength, fitError, sampleCount, timestamp }
+     */
+    getCalibration: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'getCalibration', []);
+        });
+    },
+
+    /**
+     * Discard the stored calibration and return to uncorrected readings
+     * @returns {Promise<void>}
+     */
+    resetCalibration: function() {
         return new Promise(function(resolve, reject) {
-            exec(resolve, reject, PLUGIN_NAME, 'getFieldStrength', []);
+            exec(resolve, reject, PLUGIN_NAME, 'resetCalibration', []);
+        });
+    },
+
+    /**
+     * Record every raw sensor event to a compact binary file
+     * @param {string} path Optional file path, defaults to a new file in the app's files directory
+     * @returns {Promise<object>} { path }
+     */
+    startRecording: function(path) {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'startRecording', path ? [path] : []);
+        });
+    },
+
+    /**
+     * Stop recording
+     * @returns {Promise<object>} { path, eventCount }
+     */
+    stopRecording: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'stopRecording', []);
+        });
+    },
+
+    /**
+     * Capture samples at up to the sensors' fastest rate into a memory-mapped file, without sending them to JS
+     * @param {object} options Optional settings { path: string, rateUs: number, includeUncalibrated: boolean,
+     *     includeAccelerometer: boolean, maxSizeBytes: number }
+     * @returns {Promise<object>} { path, sensorTypes }
+     */
+    startCapture: function(options) {
+        var captureOptions = {
+            rateUs: (options && options.rateUs) ? options.rateUs : 0,
+            includeUncalibrated: !!(options && options.includeUncalibrated),
+            includeAccelerometer: !!(options && options.includeAccelerometer)
+        };
+        if (options && options.path) {
+            captureOptions.path = options.path;
+        }
+        if (options && options.maxSizeBytes) {
+            captureOptions.maxSizeBytes = options.maxSizeBytes;
+        }
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'startCapture', [captureOptions]);
+        });
+    },
+
+    /**
+     * Stop the capture and close its file
+     * @returns {Promise<object>} { path, recordCount, droppedCount, durationMs, sizeBytes }
+     */
+    stopCapture: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'stopCapture', []);
+        });
+    },
+
+    /**
+     * Read a window of records from a capture file, also while it is being written
+     * @param {string} path Capture file path
+     * @param {number} first Index of the first record (default: 0)
+     * @param {number} count Maximum number of records (default: 4096, at most 65536)
+     * @returns {Promise<ArrayBuffer>} Records in the capture record layout
+     */
+    readCapture: function(path, first, count) {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'readCapture', [path, first || 0, count || 4096]);
+        });
+    },
+
+    /**
+     * Replay a recording in place of the device sensors; watches and one-shot calls receive the recorded stream
+     * @param {object} options { path: string, speed: 'realtime' | 'max' }
+     * @returns {Promise<object>} Resolved when the replay ends or is stopped with { eventCount, completed }
+     */
+    startReplay: function(options) {
+        var replayOptions = {
+            path: options && options.path,
+            speed: (options && options.speed) ? options.speed : 'realtime'
+        };
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'startReplay', [replayOptions]);
+        });
+    },
+
+    /**
+     * Stop a replay and switch back to the device sensors
+     * @returns {Promise<void>}
+     */
+    stopReplay: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'stopReplay', []);
+        });
+    },
+
+    /**
+     * Get pipeline counters and latency histograms collected since start or the last resetMetrics
+     * @returns {Promise<object>} { sinceMs, sensors, watches, timings }
+     */
+    getMetrics: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'getMetrics', []);
+        });
+    },
+
+    /**
+     * Reset all metrics
+     * @returns {Promise<void>}
+     */
+    resetMetrics: function() {
+        return new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, 'resetMetrics', []);
         });
     }
 };
 
+/**
+ * Call a one-shot action, sharing the pending promise with concurrent calls of the same action
+ * and maxAgeMs so they cross the bridge once. Callers receive the same result object.
+ */
+function requestOnce(action, options) {
+    var maxAgeMs = (options && typeof options.maxAgeMs === 'number') ? options.maxAgeMs : -1;
+    var key = action + ':' + maxAgeMs;
+    if (!pendingRequests[key]) {
+        var request = new Promise(function(resolve, reject) {
+            exec(resolve, reject, PLUGIN_NAME, action, maxAgeMs >= 0 ? [{ maxAgeMs: maxAgeMs }] : []);
+        });
+        var clear = function() {
+            delete pendingRequests[key];
+        };
+        request.then(clear, clear);
+        pendingRequests[key] = request;
+    }
+    return pendingRequests[key];
+}
+
+/**
+ * ID of a new watch: the caller's id option, or a generated one unique within the page
+ */
+function createWatchId(type, options) {
+    if (options && options.id) {
+        return String(options.id);
+    }
+    watchCounter++;
+    return type + '-' + watchCounter;
+}
+
+/**
+ * Copy the flow control and background options of a watch into the options sent to native
+ */
+function addDeliveryOptions(nativeOptions, options) {
+    nativeOptions.maxInFlight = (options && options.maxInFlight) ? options.maxInFlight : 0;
+    nativeOptions.deliveryPolicy = (options && options.deliveryPolicy) ? options.deliveryPolicy : 'latest';
+    nativeOptions.queueSize = (options && options.queueSize) ? options.queueSize : 16;
+    nativeOptions.manualAck = !!(options && options.manualAck);
+    nativeOptions.backgroundPolicy = (options && options.backgroundPolicy) ? options.backgroundPolicy : 'pause';
+    nativeOptions.backgroundFrequency = (options && options.backgroundFrequency) ? options.backgroundFrequency : 1000;
+    return nativeOptions;
+}
+
+/**
+ * With maxInFlight set and manual acknowledgement off, acknowledge payloads once the callback has
+ * handled them. Acks are sent for half the window at a time to keep reverse bridge traffic low.
+ */
+function withAcknowledgement(callback, nativeOptions) {
+    if (nativeOptions.maxInFlight <= 0 || nativeOptions.manualAck) {
+        return callback;
+    }
+
+    var ackEvery = Math.max(1, Math.floor(nativeOptions.maxInFlight / 2));
+    var consumed = 0;
+    return function(data) {
+        try {
+            callback(data);
+        } finally {
+            consumed++;
+            if (consumed >= ackEvery) {
+                exec(null, null, PLUGIN_NAME, 'ackWatch', [nativeOptions.id, consumed]);
+                consumed = 0;
+            }
+        }
+    };
+}
+
+/**
+ * Expand a packed batch [m0, t0, a0, ts0, n0, m1, ...] into heading objects,
+ * with epoch millisecond timestamps ts and sensor timestamps n in nanoseconds.
+ * Single headings become a batch of one.
+ */
+function unpackHeadings(data) {
+    if (!Array.isArray(data)) {
+        return [data];
+    }
+
+    var headings = [];
+    for (var i = 0; i + 4 < data.length; i += 5) {
+        headings.push({
+            magneticHeading: data[i],
+            trueHeading: data[i + 1],
+            headingAccuracy: data[i + 2],
+            timestamp: data[i + 3],
+            timestampNanos: data[i + 4]
+        });
+    }
+    return headings;
+}
+
+/**
+ * Expand a packed batch [x0, y0, z0, t0, n0, x1, ...] into reading objects,
+ * with epoch millisecond timestamps t and sensor timestamps n in nanoseconds.
+ * Platforms without native batching deliver single readings, which become a batch of one.
+ */
+function unpackReadings(data) {
+    if (!Array.isArray(data)) {
+        return [data];
+    }
+
+    var readings = [];
+    for (var i = 0; i + 4 < data.length; i += 5) {
+        var x = data[i];
+        var y = data[i + 1];
+        var z = data[i + 2];
+        readings.push({
+            x: x,
+            y: y,
+            z: z,
+            magnitude: Math.sqrt(x * x + y * y + z * z),
+            timestamp: data[i + 3],
+            timestampNanos: data[i + 4]
+        });
+    }
+    return readings;
+}
+
 module.exports = MagnetometerPlugin;